@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/*
+    The day label formatter has to produce the labels Utility always has, and once a label is
+    known, hand it back without allocating.
+ */
+public class TestDayLabelFormatter extends AndroidTestCase {
+    public static final String LOG_TAG = TestDayLabelFormatter.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int BINDS = 100;
+
+    public void testMatchesLegacy() {
+        DayLabelFormatter formatter = new DayLabelFormatter(mContext);
+        long now = System.currentTimeMillis();
+        for (int day = -2; day < 21; day++) {
+            long date = now + day * DAY_IN_MILLIS;
+            assertEquals("Error: friendly day string for day " + day,
+                    legacyFriendlyDayString(mContext, date, true),
+                    formatter.getFriendlyDayString(date, true));
+            assertEquals("Error: short friendly day string for day " + day,
+                    legacyFriendlyDayString(mContext, date, false),
+                    formatter.getFriendlyDayString(date, false));
+            assertEquals("Error: day name for day " + day,
+                    legacyDayName(mContext, date), formatter.getDayName(date));
+            assertEquals("Error: month and day for day " + day,
+                    legacyFormattedMonthDay(date), formatter.getFormattedMonthDay(date));
+        }
+    }
+
+    public void testNoAllocationsOnceCached() {
+        DayLabelFormatter formatter = new DayLabelFormatter(mContext);
+        long[] dates = getDates(14);
+        bind(formatter, dates);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        for (int bind = 0; bind < BINDS; bind++) {
+            bind(formatter, dates);
+        }
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        // Midnight rebuilds every label, so a test that straddles it can't tell us anything
+        int gmtOff = TimeZone.getDefault().getOffset(dates[0]) / 1000;
+        if (Time.getJulianDay(dates[0], gmtOff) ==
+                Time.getJulianDay(System.currentTimeMillis(), gmtOff)) {
+            assertEquals("Error: binding cached day labels allocated", 0, allocations);
+        }
+    }
+
+    /*
+        Whoever kept labels hears once per change that they're stale, and stops hearing after
+        unregistering.
+     */
+    public void testListenersHearLabelsChange() {
+        DayLabelFormatter formatter = new DayLabelFormatter(mContext);
+        final int[] calls = new int[1];
+        DayLabelFormatter.OnLabelsChangedListener listener =
+                new DayLabelFormatter.OnLabelsChangedListener() {
+                    @Override
+                    public void onLabelsChanged() {
+                        calls[0]++;
+                    }
+                };
+        formatter.addOnLabelsChangedListener(listener);
+        formatter.addOnLabelsChangedListener(listener);
+        formatter.labelsChanged();
+        assertEquals("Error: listener wasn't told exactly once", 1, calls[0]);
+
+        formatter.removeOnLabelsChangedListener(listener);
+        formatter.labelsChanged();
+        assertEquals("Error: removed listener was still told", 1, calls[0]);
+    }
+
+    public void testBindTime() {
+        logBindTime(14);
+        logBindTime(1000);
+    }
+
+    /*
+        Labelling a list of the given length, the old way and through a formatter that starts
+        out empty, so its first bind pays for building every label.
+     */
+    private void logBindTime(int rows) {
+        long[] dates = getDates(rows);
+        long start = SystemClock.elapsedRealtime();
+        for (int bind = 0; bind < BINDS; bind++) {
+            for (int row = 0; row < rows; row++) {
+                legacyFriendlyDayString(mContext, dates[row], 0 == row);
+            }
+        }
+        long legacyMillis = SystemClock.elapsedRealtime() - start;
+
+        DayLabelFormatter formatter = new DayLabelFormatter(mContext);
+        start = SystemClock.elapsedRealtime();
+        for (int bind = 0; bind < BINDS; bind++) {
+            bind(formatter, dates);
+        }
+        long formatterMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.d(LOG_TAG, BINDS + " binds of " + rows + " rows: legacy " + legacyMillis
+                + "ms, formatter " + formatterMillis + "ms");
+    }
+
+    private static long[] getDates(int rows) {
+        long now = System.currentTimeMillis();
+        long[] dates = new long[rows];
+        for (int row = 0; row < rows; row++) {
+            dates[row] = now + row * DAY_IN_MILLIS;
+        }
+        return dates;
+    }
+
+    private static void bind(DayLabelFormatter formatter, long[] dates) {
+        for (int row = 0; row < dates.length; row++) {
+            formatter.getFriendlyDayString(dates[row], 0 == row);
+        }
+    }
+
+    /*
+        The formatting as Utility had it.
+     */
+    private static String legacyFriendlyDayString(Context context, long dateInMillis,
+                                                  boolean displayLongToday) {
+        Time time = new Time();
+        time.setToNow();
+        long currentTime = System.currentTimeMillis();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+
+        if (displayLongToday && julianDay == currentJulianDay) {
+            String today = context.getString(R.string.today);
+            int formatId = R.string.format_full_friendly_date;
+            return String.format(context.getString(
+                    formatId,
+                    today,
+                    legacyFormattedMonthDay(dateInMillis)));
+        } else if ( julianDay < currentJulianDay + 7 ) {
+            return legacyDayName(context, dateInMillis);
+        } else {
+            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+            return shortenedDateFormat.format(dateInMillis);
+        }
+    }
+
+    private static String legacyDayName(Context context, long dateInMillis) {
+        Time t = new Time();
+        t.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+        if (julianDay == currentJulianDay) {
+            return context.getString(R.string.today);
+        } else if ( julianDay == currentJulianDay +1 ) {
+            return context.getString(R.string.tomorrow);
+        } else {
+            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
+            return dayFormat.format(dateInMillis);
+        }
+    }
+
+    private static String legacyFormattedMonthDay(long dateInMillis) {
+        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+        return monthDayFormat.format(dateInMillis);
+    }
+}
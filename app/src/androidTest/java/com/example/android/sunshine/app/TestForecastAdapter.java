@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.v4.view.ViewCompat;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.TextView;
+
+/*
+    Binding a forecast row should only hand prepared strings to its views, and show exactly what
+    formatting them at bind time used to.
+ */
+public class TestForecastAdapter extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastAdapter.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int ROWS = 14;
+    private static final int FRAMES = 200;
+    // A frame at 60fps
+    private static final long FRAME_NANOS = 16666667L;
+
+    // In the order of ForecastFragment's COL_ indices
+    private static final String[] COLUMNS = {
+            "_id", "date", "short_desc", "max", "min", "location_setting", "weather_id",
+            "coord_lat", "coord_long"
+    };
+    private static final int[] WEATHER_IDS = {
+            200, 300, 500, 511, 600, 741, 781, 800, 801, 803, 962, 999
+    };
+
+    private Context mThemedContext;
+    private ForecastAdapter mAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThemedContext = new ContextThemeWrapper(mContext, R.style.AppTheme);
+        mAdapter = new ForecastAdapter(mThemedContext, null, new View(mThemedContext),
+                AbsListView.CHOICE_MODE_NONE);
+    }
+
+    private static Cursor createForecastCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        long now = System.currentTimeMillis();
+        for (int row = 0; row < ROWS; row++) {
+            cursor.addRow(new Object[]{row, now + row * DAY_IN_MILLIS, "Clear",
+                    20.5 + row, 10.5 - row, "94043", WEATHER_IDS[row % WEATHER_IDS.length],
+                    37.4, -122.1});
+        }
+        return cursor;
+    }
+
+    public void testBindMatchesLegacy() {
+        if (!Utility.usingLocalGraphics(mContext)) {
+            Log.d(LOG_TAG, "Skipped: an art pack is selected, and Glide needs the main thread");
+            return;
+        }
+        Cursor cursor = createForecastCursor();
+        mAdapter.swapCursor(cursor);
+        RecyclerView parent = new RecyclerView(mThemedContext);
+        for (int position = 0; position < ROWS; position++) {
+            int viewType = mAdapter.getItemViewType(position);
+            ForecastAdapter.ForecastAdapterViewHolder legacy =
+                    mAdapter.onCreateViewHolder(parent, viewType);
+            ForecastAdapter.ForecastAdapterViewHolder prepared =
+                    mAdapter.onCreateViewHolder(parent, viewType);
+            legacyBind(legacy, cursor, position, 0 == position);
+            mAdapter.onBindViewHolder(prepared, position);
+
+            assertViewMatches(legacy.mDateView, prepared.mDateView, position);
+            assertViewMatches(legacy.mDescriptionView, prepared.mDescriptionView, position);
+            assertViewMatches(legacy.mHighTempView, prepared.mHighTempView, position);
+            assertViewMatches(legacy.mLowTempView, prepared.mLowTempView, position);
+        }
+        cursor.close();
+    }
+
+    private static void assertViewMatches(TextView expected,
+                                          TextView actual, int position) {
+        assertEquals("Error: text at " + position,
+                expected.getText().toString(), actual.getText().toString());
+        assertEquals("Error: content description at " + position,
+                expected.getContentDescription(), actual.getContentDescription());
+    }
+
+    /*
+        What binding a list's worth of rows costs per frame, formatting each row as it's bound
+        and with the rows prepared by the loader.
+     */
+    public void testBindTime() {
+        if (!Utility.usingLocalGraphics(mContext)) {
+            Log.d(LOG_TAG, "Skipped: an art pack is selected, and Glide needs the main thread");
+            return;
+        }
+        Cursor cursor = createForecastCursor();
+        RecyclerView parent = new RecyclerView(mThemedContext);
+        ForecastAdapter.ForecastAdapterViewHolder[] holders =
+                new ForecastAdapter.ForecastAdapterViewHolder[ROWS];
+
+        long start = System.nanoTime();
+        ForecastRow[] rows = ForecastRow.prepare(mContext, cursor);
+        long prepareNanos = System.nanoTime() - start;
+        mAdapter.swapCursor(new ForecastLoader.ForecastCursor(cursor,
+                ForecastDiff.compute(null, rows)));
+        for (int position = 0; position < ROWS; position++) {
+            holders[position] = mAdapter.onCreateViewHolder(parent,
+                    mAdapter.getItemViewType(position));
+        }
+
+        start = System.nanoTime();
+        for (int frame = 0; frame < FRAMES; frame++) {
+            for (int position = 0; position < ROWS; position++) {
+                legacyBind(holders[position], cursor, position, 0 == position);
+            }
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int frame = 0; frame < FRAMES; frame++) {
+            for (int position = 0; position < ROWS; position++) {
+                mAdapter.onBindViewHolder(holders[position], position);
+            }
+        }
+        long preparedNanos = System.nanoTime() - start;
+        cursor.close();
+
+        long binds = (long) FRAMES * ROWS;
+        Log.d(LOG_TAG, "Bind per row: formatting " + legacyNanos / binds / 1000 + "us, prepared "
+                + preparedNanos / binds / 1000 + "us.  A frame of " + ROWS + " rows: "
+                + 100 * legacyNanos / FRAMES / FRAME_NANOS + "% of 16ms formatting, "
+                + 100 * preparedNanos / FRAMES / FRAME_NANOS + "% prepared.  Preparing took "
+                + prepareNanos / 1000 + "us on the loader thread");
+    }
+
+    private ForecastRow[] createRows(long firstDate, int count, int changedDay) {
+        ForecastRow[] rows = new ForecastRow[count];
+        for (int row = 0; row < count; row++) {
+            long date = firstDate + row * DAY_IN_MILLIS;
+            // The same date always gets the same temperatures
+            rows[row] = new ForecastRow(mContext, date,
+                    changedDay == row ? 500 : 800, 20.5 + (date / DAY_IN_MILLIS) % 10, 10.5);
+        }
+        return rows;
+    }
+
+    private void swapRows(ForecastRow[] from, ForecastRow[] to) {
+        mAdapter.swapCursor(new ForecastLoader.ForecastCursor(new MatrixCursor(COLUMNS),
+                ForecastDiff.compute(from, to)));
+    }
+
+    /*
+        A sync that brings a new forecast for a couple of days should only rebind those days,
+        and a selected row should stay selected wherever it ends up.
+     */
+    public void testSyncRebindsChangedRows() {
+        final int[] notified = new int[1];
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                notified[0] += mAdapter.getItemCount();
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                notified[0] += itemCount;
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                notified[0] += itemCount;
+            }
+        });
+        ItemChoiceManager icm = new ItemChoiceManager(mAdapter);
+        icm.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
+
+        long today = System.currentTimeMillis();
+        ForecastRow[] loaded = createRows(today, ROWS, -1);
+        swapRows(null, loaded);
+        assertEquals("Error: the first load should bind every row", ROWS, notified[0]);
+
+        icm.mCheckStates.put(5, true);
+        icm.mCheckedIdStates.put(loaded[5].date, 5);
+
+        // A sync that changes the forecast for one day
+        notified[0] = 0;
+        ForecastRow[] synced = createRows(today, ROWS, 3);
+        ForecastDiff diff = ForecastDiff.compute(loaded, synced);
+        swapRows(loaded, synced);
+        assertEquals("Error: only the changed day should be rebound", 1, diff.getBindCount());
+        assertEquals(1, notified[0]);
+        assertEquals(5, icm.getSelectedItemPosition());
+        int syncBound = notified[0];
+
+        // The next day: two days drop off the front and two new ones appear at the end
+        notified[0] = 0;
+        ForecastRow[] nextDay = createRows(today + 2 * DAY_IN_MILLIS, ROWS, -1);
+        diff = ForecastDiff.compute(synced, nextDay);
+        swapRows(synced, nextDay);
+        assertEquals(2, diff.getRemovedCount());
+        assertEquals(2, diff.getInsertedCount());
+        assertEquals(3, icm.getSelectedItemPosition());
+        assertEquals(loaded[5].date, mAdapter.getItemId(3));
+        Log.d(LOG_TAG, "Rows bound for a sync changing one day: " + syncBound + " instead of " + ROWS
+                + "; for a rollover of two days: " + notified[0] + " instead of " + ROWS);
+    }
+
+    /*
+        Restoring the selected date in a long history should find the same row the old scan of
+        the cursor did, without the scan.
+     */
+    public void testPositionForDate() {
+        final int historyRows = 10000;
+        long firstDate = System.currentTimeMillis() - (historyRows - ROWS) * DAY_IN_MILLIS;
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int row = 0; row < historyRows; row++) {
+            cursor.addRow(new Object[]{row, firstDate + row * DAY_IN_MILLIS, "Clear", 20.5, 10.5,
+                    "94043", 800, 37.4, -122.1});
+        }
+        mAdapter.swapCursor(new ForecastLoader.ForecastCursor(cursor,
+                ForecastDiff.compute(null, ForecastRow.prepare(mContext, cursor))));
+
+        long[] dates = {firstDate, firstDate + 4321 * DAY_IN_MILLIS,
+                firstDate + (historyRows - 1) * DAY_IN_MILLIS};
+        long scanNanos = 0;
+        long searchNanos = 0;
+        for (long date : dates) {
+            long start = System.nanoTime();
+            int scanned = legacyFindPosition(cursor, date);
+            scanNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int found = mAdapter.getPositionForDate(date);
+            searchNanos += System.nanoTime() - start;
+
+            assertEquals("Error: wrong position for " + date, scanned, found);
+        }
+        assertEquals(RecyclerView.NO_POSITION, mAdapter.getPositionForDate(firstDate - 1));
+        assertEquals(RecyclerView.NO_POSITION, mAdapter.getPositionForDate(firstDate + 1));
+        cursor.close();
+
+        Log.d(LOG_TAG, "Finding " + dates.length + " dates in " + historyRows + " rows: scan "
+                + scanNanos / 1000 + "us, binary search " + searchNanos / 1000 + "us");
+    }
+
+    /*
+        How ForecastFragment used to find the initially selected date.
+     */
+    private static int legacyFindPosition(Cursor data, long initialSelectedDate) {
+        int count = data.getCount();
+        int dateColumn = data.getColumnIndex(COLUMNS[ForecastFragment.COL_WEATHER_DATE]);
+        for ( int i = 0; i < count; i++ ) {
+            data.moveToPosition(i);
+            if ( data.getLong(dateColumn) == initialSelectedDate ) {
+                return i;
+            }
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
+    /*
+        onBindViewHolder as it was, formatting the row from the cursor.
+     */
+    private void legacyBind(ForecastAdapter.ForecastAdapterViewHolder holder, Cursor cursor,
+                            int position, boolean today) {
+        cursor.moveToPosition(position);
+        int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        int defaultImage = today ? Utility.getArtResourceForWeatherCondition(weatherId) :
+                Utility.getIconResourceForWeatherCondition(weatherId);
+        holder.mIconView.setImageResource(defaultImage);
+        ViewCompat.setTransitionName(holder.mIconView, "iconView" + position);
+
+        long dateInMillis = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        holder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, today));
+
+        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        holder.mDescriptionView.setText(description);
+        holder.mDescriptionView.setContentDescription(
+                mContext.getString(R.string.a11y_forecast, description));
+
+        String highString = Utility.formatTemperature(mContext,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+        holder.mHighTempView.setText(highString);
+        holder.mHighTempView.setContentDescription(
+                mContext.getString(R.string.a11y_high_temp, highString));
+
+        String lowString = Utility.formatTemperature(mContext,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+        holder.mLowTempView.setText(lowString);
+        holder.mLowTempView.setContentDescription(
+                mContext.getString(R.string.a11y_low_temp, lowString));
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v4.util.LongSparseArray;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+
+/*
+    Checked items have to follow their IDs when the data changes, and finding them shouldn't
+    mean probing the adapter around every one of them.
+ */
+public class TestItemChoiceManager extends AndroidTestCase {
+    public static final String LOG_TAG = TestItemChoiceManager.class.getSimpleName();
+
+    private static final int ITEMS = 1000;
+    private static final int CHECKED = 200;
+    private static final int RUNS = 50;
+    // The old search only looked this far either side of where an item was
+    private static final int LEGACY_SEARCH_DISTANCE = 20;
+
+    /*
+        An adapter of IDs alone, counting how often it's asked for one.
+     */
+    static class IdAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        long[] mIds;
+        int mIdLookups;
+
+        IdAdapter(int count, long firstId) {
+            setHasStableIds(true);
+            setIds(count, firstId);
+        }
+
+        void setIds(int count, long firstId) {
+            mIds = new long[count];
+            for (int i = 0; i < count; i++) {
+                mIds[i] = firstId + i;
+            }
+        }
+
+        @Override
+        public long getItemId(int position) {
+            mIdLookups++;
+            return mIds[position];
+        }
+
+        @Override
+        public int getItemCount() {
+            return mIds.length;
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return null;
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        }
+    }
+
+    // Every fifth item, from the start of the list
+    private static void check(ItemChoiceManager icm, IdAdapter adapter) {
+        icm.clearSelections();
+        for (int i = 0; i < CHECKED; i++) {
+            int position = i * (ITEMS / CHECKED);
+            icm.mCheckStates.put(position, true);
+            icm.mCheckedIdStates.put(adapter.mIds[position], position);
+        }
+    }
+
+    public void testSelectionsFollowIds() {
+        IdAdapter adapter = new IdAdapter(ITEMS, 0);
+        ItemChoiceManager icm = new ItemChoiceManager(adapter);
+        icm.setChoiceMode(AbsListView.CHOICE_MODE_MULTIPLE);
+        check(icm, adapter);
+
+        // Further than the old search would have looked
+        adapter.setIds(ITEMS + 50, -50);
+        adapter.notifyItemRangeInserted(0, 50);
+        assertEquals(CHECKED, icm.mCheckedIdStates.size());
+        for (int i = 0; i < CHECKED; i++) {
+            assertTrue("Error: item " + i + " lost its check",
+                    icm.isItemChecked(i * (ITEMS / CHECKED) + 50));
+        }
+
+        // Items that are gone are unchecked
+        adapter.setIds(ITEMS / 2, 0);
+        adapter.notifyItemRangeRemoved(ITEMS / 2, ITEMS / 2);
+        assertEquals(CHECKED / 2, icm.mCheckedIdStates.size());
+        assertEquals(CHECKED / 2, icm.mCheckStates.size());
+    }
+
+    /*
+        Every checked item moves a few places, within reach of the old search, so both ways find
+        them all; the difference is how much of the adapter they ask to get there.
+     */
+    public void testReconcileTime() {
+        IdAdapter adapter = new IdAdapter(ITEMS, 0);
+        ItemChoiceManager icm = new ItemChoiceManager(adapter);
+        icm.setChoiceMode(AbsListView.CHOICE_MODE_MULTIPLE);
+
+        long legacyNanos = 0;
+        int legacyLookups = 0;
+        long indexNanos = 0;
+        int indexLookups = 0;
+        for (int run = 0; run < RUNS; run++) {
+            adapter.setIds(ITEMS, 0);
+            check(icm, adapter);
+            adapter.setIds(ITEMS + 10, -10);
+            adapter.mIdLookups = 0;
+            long start = System.nanoTime();
+            legacyConfirmCheckedPositionsById(icm, adapter, ITEMS + 10);
+            legacyNanos += System.nanoTime() - start;
+            legacyLookups += adapter.mIdLookups;
+            assertEquals(CHECKED, icm.mCheckStates.size());
+
+            adapter.setIds(ITEMS, 0);
+            check(icm, adapter);
+            adapter.setIds(ITEMS + 10, -10);
+            adapter.mIdLookups = 0;
+            start = System.nanoTime();
+            icm.confirmCheckedPositionsById(ITEMS + 10);
+            indexNanos += System.nanoTime() - start;
+            indexLookups += adapter.mIdLookups;
+            assertEquals(CHECKED, icm.mCheckStates.size());
+            assertTrue(icm.isItemChecked(10));
+        }
+
+        Log.d(LOG_TAG, CHECKED + " of " + ITEMS + " items checked, all moved: searching "
+                + legacyNanos / RUNS / 1000 + "us and " + legacyLookups / RUNS
+                + " ID lookups, index " + indexNanos / RUNS / 1000 + "us and "
+                + indexLookups / RUNS + " ID lookups");
+    }
+
+    /*
+        confirmCheckedPositionsById as it was, searching around each checked item's old position.
+     */
+    private static void legacyConfirmCheckedPositionsById(ItemChoiceManager icm,
+                                                         IdAdapter adapter, int oldItemCount) {
+        SparseBooleanArray checkStates = icm.mCheckStates;
+        LongSparseArray<Integer> checkedIdStates = icm.mCheckedIdStates;
+        checkStates.clear();
+
+        for (int checkedIndex = 0; checkedIndex < checkedIdStates.size(); checkedIndex++) {
+            final long id = checkedIdStates.keyAt(checkedIndex);
+            final int lastPos = checkedIdStates.valueAt(checkedIndex);
+
+            final long lastPosId = adapter.getItemId(lastPos);
+            if (id != lastPosId) {
+                final int start = Math.max(0, lastPos - LEGACY_SEARCH_DISTANCE);
+                final int end = Math.min(lastPos + LEGACY_SEARCH_DISTANCE, oldItemCount);
+                boolean found = false;
+                for (int searchPos = start; searchPos < end; searchPos++) {
+                    final long searchId = adapter.getItemId(searchPos);
+                    if (id == searchId) {
+                        found = true;
+                        checkStates.put(searchPos, true);
+                        checkedIdStates.setValueAt(checkedIndex, searchPos);
+                        break;
+                    }
+                }
+
+                if (!found) {
+                    checkedIdStates.delete(id);
+                    checkedIndex--;
+                }
+            } else {
+                checkStates.put(lastPos, true);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+/*
+    The settings snapshot has to follow the preferences it stands in for, and make the per-row
+    formatting of a forecast list cheaper than reading them every time.
+ */
+public class TestSettingsSnapshot extends AndroidTestCase {
+    public static final String LOG_TAG = TestSettingsSnapshot.class.getSimpleName();
+
+    private static final int ROWS = 14;
+    private static final int BINDS = 500;
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mSavedUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mSavedUnits = mPrefs.getString(mUnitsKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (null == mSavedUnits) {
+            editor.remove(mUnitsKey);
+        } else {
+            editor.putString(mUnitsKey, mSavedUnits);
+        }
+        editor.commit();
+        SettingsSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    public void testFollowsPreferences() {
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_metric))
+                .commit();
+        SettingsSnapshot.refresh(mContext);
+        assertTrue(Utility.isMetric(mContext));
+        assertEquals(String.format(mContext.getString(R.string.format_temperature), 0.0),
+                Utility.formatTemperature(mContext, 0));
+
+        // No refresh this time: the listener has to notice on its own
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_imperial))
+                .commit();
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return !Utility.isMetric(mContext);
+            }
+        }.run();
+        assertEquals(String.format(mContext.getString(R.string.format_temperature), 32.0),
+                Utility.formatTemperature(mContext, 0));
+    }
+
+    /*
+        What formatting a row cost before the snapshot: a trip to SharedPreferences, with its key
+        and default looked up in the resources, for the icon and each temperature.
+     */
+    private static boolean legacyUsingLocalGraphics(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        return prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack).equals(sunshineArtPack);
+    }
+
+    private static String legacyFormatTemperature(Context context, double temperature) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        boolean metric = prefs.getString(context.getString(R.string.pref_units_key),
+                context.getString(R.string.pref_units_metric))
+                .equals(context.getString(R.string.pref_units_metric));
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return String.format(context.getString(R.string.format_temperature), temperature);
+    }
+
+    /*
+        The settings-dependent part of binding a forecast list, a full list at a time, the old
+        way and through the snapshot.
+     */
+    public void testBindTime() {
+        int localGraphics = 0;
+        long start = SystemClock.elapsedRealtime();
+        for (int bind = 0; bind < BINDS; bind++) {
+            for (int row = 0; row < ROWS; row++) {
+                if (legacyUsingLocalGraphics(mContext)) {
+                    localGraphics++;
+                }
+                legacyFormatTemperature(mContext, 20.5 + row);
+                legacyFormatTemperature(mContext, 10.5 + row);
+            }
+        }
+        long legacyMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        for (int bind = 0; bind < BINDS; bind++) {
+            for (int row = 0; row < ROWS; row++) {
+                if (Utility.usingLocalGraphics(mContext)) {
+                    localGraphics--;
+                }
+                Utility.formatTemperature(mContext, 20.5 + row);
+                Utility.formatTemperature(mContext, 10.5 + row);
+            }
+        }
+        long snapshotMillis = SystemClock.elapsedRealtime() - start;
+
+        assertEquals("Error: the snapshot and the preferences disagree", 0, localGraphics);
+        Log.d(LOG_TAG, BINDS + " binds of " + ROWS + " rows: reading preferences "
+                + legacyMillis + "ms, snapshot " + snapshotMillis + "ms");
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Past days moving into the archive, compaction folding the old ones into weeks, and what that
+    does to the size of five years of history.
+ */
+public class TestArchive extends AndroidTestCase {
+    public static final String LOG_TAG = TestArchive.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private Time mTime;
+    private int mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+        mTime = new Time();
+        mTime.setToNow();
+        mToday = Time.getJulianDay(System.currentTimeMillis(), mTime.gmtoff);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(ArchiveEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private long daysAgo(int days) {
+        return mTime.setJulianDay(mToday - days);
+    }
+
+    /*
+        A day's weather with readings that change from day to day.
+     */
+    private static ContentValues createDay(long locationRowId, long date, int day) {
+        ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+        values.put(WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, -5.5 + day % 10);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 4.2 + day % 10);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 60 + day % 30);
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1000 + day % 25);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 1.5 + day % 5);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 800 - day % 3 * 100);
+        return values;
+    }
+
+    public void testPurgeMovesDaysToArchive() {
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        ContentValues[] days = new ContentValues[10];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = createDay(locationRowId, daysAgo(days.length - i), i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        TestUtilities.TestContentObserver archiveObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(ArchiveEntry.CONTENT_URI, true,
+                archiveObserver);
+        // The incremental bulk insert's purge, with nothing new to write
+        int purged = mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherIncrementalUri(daysAgo(7)), new ContentValues[0]);
+        assertEquals(4, purged);
+        archiveObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(archiveObserver);
+
+        // ...and the purge as its own delete, the way a sync's batch does it
+        assertEquals(3, mContext.getContentResolver().delete(
+                WeatherEntry.buildWeatherIncrementalUri(daysAgo(4)), null, null));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals(3, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals(7, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            String error = "archived day " + i;
+            assertEquals(error, ArchiveEntry.PERIOD_DAY,
+                    cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_PERIOD)));
+            for (String column : new String[]{WeatherEntry.COLUMN_DATE,
+                    WeatherEntry.COLUMN_WEATHER_ID, WeatherEntry.COLUMN_HUMIDITY,
+                    WeatherEntry.COLUMN_PRESSURE}) {
+                assertEquals(error + " " + column, days[i].getAsLong(column).longValue(),
+                        cursor.getLong(cursor.getColumnIndex(column)));
+            }
+            for (String column : new String[]{WeatherEntry.COLUMN_MIN_TEMP,
+                    WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_WIND_SPEED}) {
+                assertEquals(error + " " + column, days[i].getAsDouble(column),
+                        cursor.getDouble(cursor.getColumnIndex(column)), 1e-9);
+            }
+        }
+        cursor.close();
+
+        // From a start date on
+        cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        daysAgo(5)), null, null, null, null);
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Writes days straight into the archive, the way purges would have over time.
+     */
+    private void archiveDays(long locationRowId, int oldest, int newest) {
+        WeatherDbHelper.beginWriteTransaction(mDb);
+        try {
+            for (int day = oldest; day >= newest; day--) {
+                ContentValues values = new ContentValues();
+                values.put(ArchiveEntry.COLUMN_LOC_KEY, locationRowId);
+                values.put(ArchiveEntry.COLUMN_DATE, daysAgo(day));
+                values.put(ArchiveEntry.COLUMN_PERIOD, ArchiveEntry.PERIOD_DAY);
+                values.put(ArchiveEntry.COLUMN_WEATHER_ID, 800 - day % 3 * 100);
+                values.put(ArchiveEntry.COLUMN_MIN_TEMP, -day % 50);
+                values.put(ArchiveEntry.COLUMN_MAX_TEMP, day % 50);
+                values.put(ArchiveEntry.COLUMN_HUMIDITY, day % 100);
+                values.put(ArchiveEntry.COLUMN_PRESSURE, 1000);
+                values.put(ArchiveEntry.COLUMN_WIND_SPEED, 10);
+                mDb.insert(ArchiveEntry.TABLE_NAME, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    public void testCompaction() {
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        archiveDays(locationRowId, 300, 1);
+
+        WeatherArchive.CompactionResult result =
+                WeatherArchive.compact(mDb, System.currentTimeMillis());
+        assertFalse(result.incomplete);
+        assertTrue(result.rowsRemoved > 0);
+
+        int cutoffWeek = WeatherArchive.getWeekStart(mToday - ArchiveEntry.DAILY_RETENTION_DAYS);
+        long cutoffDate = mTime.setJulianDay(cutoffWeek);
+        Cursor cursor = mDb.query(ArchiveEntry.TABLE_NAME, null, null, null, null, null,
+                ArchiveEntry.COLUMN_DATE + " ASC");
+        int dateIndex = cursor.getColumnIndex(ArchiveEntry.COLUMN_DATE);
+        int periodIndex = cursor.getColumnIndex(ArchiveEntry.COLUMN_PERIOD);
+        int weeks = 0;
+        int days = 0;
+        while (cursor.moveToNext()) {
+            long date = cursor.getLong(dateIndex);
+            if (date < cutoffDate) {
+                assertEquals("Error: an old day was left uncompacted",
+                        ArchiveEntry.PERIOD_WEEK, cursor.getInt(periodIndex));
+                mTime.set(date);
+                int julianDay = Time.getJulianDay(date, mTime.gmtoff);
+                assertEquals("Error: a week doesn't start on a week boundary",
+                        WeatherArchive.getWeekStart(julianDay), julianDay);
+                weeks++;
+            } else {
+                assertEquals("Error: a recent day was compacted",
+                        ArchiveEntry.PERIOD_DAY, cursor.getInt(periodIndex));
+                days++;
+            }
+        }
+        cursor.close();
+        // Every day from the cutoff week on is still a day; every week before it is a week
+        assertEquals(mToday - cutoffWeek, days);
+        assertEquals((cutoffWeek - WeatherArchive.getWeekStart(mToday - 300)) / 7, weeks);
+        assertEquals(300 - days - weeks, result.rowsRemoved);
+
+        // The first whole week: each figure summarizes its seven days
+        int week = WeatherArchive.getWeekStart(mToday - 300) + 7;
+        int minTemp = Integer.MAX_VALUE, maxTemp = Integer.MIN_VALUE, weatherId = Integer.MAX_VALUE;
+        int humiditySum = 0;
+        for (int julianDay = week; julianDay < week + 7; julianDay++) {
+            int day = mToday - julianDay;
+            minTemp = Math.min(minTemp, -day % 50);
+            maxTemp = Math.max(maxTemp, day % 50);
+            // Snow outranks fog and clear sky, and happens to have the lowest code too
+            weatherId = Math.min(weatherId, 800 - day % 3 * 100);
+            humiditySum += day % 100;
+        }
+        cursor = mDb.query(ArchiveEntry.TABLE_NAME, null, ArchiveEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(mTime.setJulianDay(week))}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(minTemp, cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_MIN_TEMP)));
+        assertEquals(maxTemp, cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_MAX_TEMP)));
+        assertEquals(weatherId,
+                cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_WEATHER_ID)));
+        assertEquals(Math.round(humiditySum / 7.0),
+                cursor.getLong(cursor.getColumnIndex(ArchiveEntry.COLUMN_HUMIDITY)));
+        cursor.close();
+
+        // Nothing left to do the second time
+        result = WeatherArchive.compact(mDb, System.currentTimeMillis());
+        assertEquals(0, result.rowsRemoved);
+        assertEquals(0, result.chunks);
+    }
+
+    public void testCompactionIsChunked() {
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        // More weeks than one run will take on
+        int days = ArchiveEntry.DAILY_RETENTION_DAYS +
+                (WeatherArchive.MAX_CHUNKS_PER_RUN + 2) * WeatherArchive.CHUNK_WEEKS * 7;
+        archiveDays(locationRowId, days, 1);
+
+        WeatherArchive.CompactionResult result =
+                WeatherArchive.compact(mDb, System.currentTimeMillis());
+        assertTrue("Error: a run went past its chunk limit", result.incomplete);
+        assertEquals(WeatherArchive.MAX_CHUNKS_PER_RUN, result.chunks);
+
+        // The next run picks up where that one left off
+        result = WeatherArchive.compact(mDb, System.currentTimeMillis());
+        assertFalse(result.incomplete);
+        assertTrue(result.chunks > 0);
+    }
+
+    /*
+        A week is remembered by its worst weather, which the condition codes don't sort by.
+     */
+    public void testWeekKeepsMostSevereCondition() {
+        long stormyRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        long cloudyRowId = insertLocation("94043");
+        int week = WeatherArchive.getWeekStart(mToday - 200);
+        int[] stormy = {800, 804, 211, 781, 500, 800, 801};
+        int[] cloudy = {800, 801, 800, 800, 800, 800, 800};
+        WeatherDbHelper.beginWriteTransaction(mDb);
+        try {
+            for (int day = 0; day < 7; day++) {
+                ContentValues values = new ContentValues();
+                values.put(ArchiveEntry.COLUMN_LOC_KEY, stormyRowId);
+                values.put(ArchiveEntry.COLUMN_DATE, mTime.setJulianDay(week + day));
+                values.put(ArchiveEntry.COLUMN_PERIOD, ArchiveEntry.PERIOD_DAY);
+                values.put(ArchiveEntry.COLUMN_MIN_TEMP, -day);
+                values.put(ArchiveEntry.COLUMN_MAX_TEMP, day);
+                values.put(ArchiveEntry.COLUMN_HUMIDITY, 50);
+                values.put(ArchiveEntry.COLUMN_PRESSURE, 1000);
+                values.put(ArchiveEntry.COLUMN_WIND_SPEED, 10);
+                values.put(ArchiveEntry.COLUMN_WEATHER_ID, stormy[day]);
+                mDb.insert(ArchiveEntry.TABLE_NAME, null, values);
+                values.put(ArchiveEntry.COLUMN_LOC_KEY, cloudyRowId);
+                values.put(ArchiveEntry.COLUMN_WEATHER_ID, cloudy[day]);
+                mDb.insert(ArchiveEntry.TABLE_NAME, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        WeatherArchive.compact(mDb, System.currentTimeMillis());
+
+        // The tornado outranks the thunderstorm, whose code is lower; clouds outrank clear sky
+        assertEquals(781, getWeekCondition(stormyRowId, week));
+        assertEquals(801, getWeekCondition(cloudyRowId, week));
+    }
+
+    private int getWeekCondition(long locationRowId, int week) {
+        Cursor cursor = mDb.query(ArchiveEntry.TABLE_NAME,
+                new String[]{ArchiveEntry.COLUMN_WEATHER_ID},
+                ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " + ArchiveEntry.COLUMN_DATE + " = ? AND " +
+                        ArchiveEntry.COLUMN_PERIOD + " = " + ArchiveEntry.PERIOD_WEEK,
+                new String[]{Long.toString(locationRowId), Long.toString(mTime.setJulianDay(week))},
+                null, null, null);
+        assertTrue("Error: the week wasn't summarized", cursor.moveToFirst());
+        int weatherId = cursor.getInt(0);
+        cursor.close();
+        return weatherId;
+    }
+
+    private long databaseBytes() {
+        return (DatabaseUtils.longForQuery(mDb, "PRAGMA page_count", null) -
+                DatabaseUtils.longForQuery(mDb, "PRAGMA freelist_count", null)) *
+                DatabaseUtils.longForQuery(mDb, "PRAGMA page_size", null);
+    }
+
+    /*
+        Five years of days for ten locations: what keeping it all in the weather table would cost,
+        what moving it to the archive costs, and what's left after compaction, along with how
+        long compaction ever held the database.
+     */
+    public void testFiveYears() {
+        final int locations = 10;
+        final int days = 5 * 365;
+        long[] locationRowIds = new long[locations];
+        for (int l = 0; l < locations; l++) {
+            locationRowIds[l] = insertLocation("location-" + l);
+        }
+        long before = databaseBytes();
+        WeatherBulkInserter inserter = new WeatherBulkInserter(mDb);
+        WeatherDbHelper.beginWriteTransaction(mDb);
+        try {
+            for (long locationRowId : locationRowIds) {
+                for (int day = days; day >= 1; day--) {
+                    inserter.insert(createDay(locationRowId, daysAgo(day), day));
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            inserter.close();
+        }
+        long weatherBytes = databaseBytes() - before;
+
+        long start = SystemClock.elapsedRealtime();
+        assertEquals(locations * days, mContext.getContentResolver().delete(
+                WeatherEntry.buildWeatherIncrementalUri(daysAgo(1)), null, null));
+        long archiveMillis = SystemClock.elapsedRealtime() - start;
+        long archiveBytes = databaseBytes() - before;
+
+        int runs = 0;
+        int chunks = 0;
+        long longestChunkMillis = 0;
+        start = SystemClock.elapsedRealtime();
+        WeatherArchive.CompactionResult result;
+        do {
+            result = WeatherArchive.compact(mDb, System.currentTimeMillis());
+            runs++;
+            chunks += result.chunks;
+            longestChunkMillis = Math.max(longestChunkMillis, result.longestChunkMillis);
+        } while (result.incomplete);
+        long compactMillis = SystemClock.elapsedRealtime() - start;
+        long compactedBytes = databaseBytes() - before;
+        long rows = DatabaseUtils.queryNumEntries(mDb, ArchiveEntry.TABLE_NAME);
+
+        Log.d(LOG_TAG, locations + " locations x " + days + " days: weather table "
+                + weatherBytes / 1024 + "KB; archived " + archiveBytes / 1024 + "KB in "
+                + archiveMillis + "ms; compacted to " + rows + " rows, " + compactedBytes / 1024
+                + "KB, in " + runs + " runs, " + chunks + " chunks, " + compactMillis
+                + "ms, longest chunk " + longestChunkMillis + "ms");
+
+        // Ninety-odd days and about 250 weeks for each location
+        assertTrue("Error: " + rows + " rows after compaction",
+                rows <= locations * (ArchiveEntry.DAILY_RETENTION_DAYS + 7 + days / 7 + 1));
+        assertTrue("Error: five years take " + compactedBytes + " bytes compacted against "
+                + weatherBytes + " uncompacted", compactedBytes * 5 < weatherBytes);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    Checks that the compiled-statement bulk insert stores the same rows the old insert loop did,
+    and measures both.  The numbers end up in logcat under this class's tag.
+ */
+public class TestBulkInsert extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsert.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    // One day of weather, with a date part way through the day so normalization has work to do
+    private ContentValues createRow(int day) {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                TestUtilities.TEST_DATE + day * DAY_IN_MILLIS + 12345);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75 + day % 10);
+        return values;
+    }
+
+    // What WeatherProvider.bulkInsert did before it used WeatherBulkInserter
+    private int legacyInsert(int rowCount) {
+        int returnCount = 0;
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < rowCount; i++) {
+                ContentValues value = createRow(i);
+                long dateValue = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                value.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                        WeatherContract.normalizeDate(dateValue));
+                if (mDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    returnCount++;
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return returnCount;
+    }
+
+    // Same as insertAll, but building rows as it goes so 100,000 of them never sit in memory
+    // at once
+    private int compiledInsert(int rowCount) {
+        WeatherBulkInserter inserter = new WeatherBulkInserter(mDb);
+        int returnCount = 0;
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < rowCount; i++) {
+                if (inserter.insert(createRow(i)) != -1) {
+                    returnCount++;
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            inserter.close();
+        }
+        return returnCount;
+    }
+
+    private void clearWeather() {
+        mDb.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+    }
+
+    public void testCompiledInsertMatchesInsert() {
+        ContentValues[] values = new ContentValues[20];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = createRow(i);
+        }
+        // An explicit _ID doesn't fit the compiled statement and has to take the slow path
+        values[5].put(WeatherContract.WeatherEntry._ID, 1000);
+
+        assertEquals(values.length, WeatherBulkInserter.insertAll(mDb, values));
+        // Neither path normalizes the caller's dates in place
+        for (int i = 0; i < values.length; i++) {
+            assertEquals("Error: row " + i + "'s values were changed",
+                    createRow(i).getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                    values[i].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+        }
+
+        Cursor cursor = mDb.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(values.length, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < values.length; i++, cursor.moveToNext()) {
+            ContentValues expected = createRow(i);
+            expected.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                    expected.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)));
+            TestUtilities.validateCurrentRecord("Error: row " + i + " of the compiled insert",
+                    cursor, expected);
+        }
+        cursor.close();
+
+        // Inserting the same days again replaces them, just as SQLiteDatabase.insert would
+        assertEquals(values.length, WeatherBulkInserter.insertAll(mDb, values));
+        assertEquals(values.length,
+                DatabaseUtils.queryNumEntries(mDb, WeatherContract.WeatherEntry.TABLE_NAME));
+    }
+
+    public void testBulkInsertThroughput() {
+        int[] batchSizes = {14, 1000, 100000};
+
+        // warm up both paths so statement caches and class loading aren't measured
+        legacyInsert(100);
+        clearWeather();
+        compiledInsert(100);
+        clearWeather();
+
+        for (int batchSize : batchSizes) {
+            long start = SystemClock.elapsedRealtime();
+            assertEquals(batchSize, legacyInsert(batchSize));
+            long legacyMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+            clearWeather();
+
+            start = SystemClock.elapsedRealtime();
+            assertEquals(batchSize, compiledInsert(batchSize));
+            long compiledMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+            clearWeather();
+
+            Log.d(LOG_TAG, batchSize + " rows: insert loop " + (batchSize * 1000L / legacyMillis)
+                    + " rows/s, compiled statement " + (batchSize * 1000L / compiledMillis)
+                    + " rows/s");
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+/*
+    Measures how long the forecast query takes while a big bulk ingest holds a write
+    transaction, with and without the write-ahead log.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class TestDatabaseContention extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDatabaseContention.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int INGEST_ROWS = 50000;
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private long mReaderLocationId;
+    private long mWriterLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+
+        mReaderLocationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues writerLocation = TestUtilities.createNorthPoleLocationValues();
+        writerLocation.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, "busy");
+        mWriterLocationId = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                writerLocation);
+
+        // Two weeks for the reader to find
+        ContentValues[] forecast = new ContentValues[14];
+        for (int i = 0; i < forecast.length; i++) {
+            forecast[i] = TestUtilities.createWeatherValues(mReaderLocationId);
+            forecast[i].put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+        }
+        WeatherBulkInserter.insertAll(mDb, forecast);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testHelperUsesWal() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        assertEquals("wal", DatabaseUtils.stringForQuery(mDb, "PRAGMA journal_mode", null)
+                .toLowerCase(Locale.US));
+    }
+
+    // One sync-sized write transaction with a lot in it
+    private Thread startIngest(final CountDownLatch started) {
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                WeatherBulkInserter inserter = new WeatherBulkInserter(mDb);
+                WeatherDbHelper.beginWriteTransaction(mDb);
+                try {
+                    for (int i = 0; i < INGEST_ROWS; i++) {
+                        ContentValues values = TestUtilities.createWeatherValues(mWriterLocationId);
+                        values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                                TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+                        inserter.insert(values);
+                        if (i == 0) {
+                            started.countDown();
+                        }
+                    }
+                    mDb.setTransactionSuccessful();
+                } finally {
+                    mDb.endTransaction();
+                    inserter.close();
+                }
+            }
+        });
+        writer.start();
+        return writer;
+    }
+
+    /**
+     * Runs the forecast list query over and over until the ingest finishes.
+     *
+     * @return each query's latency in microseconds, sorted.
+     */
+    private List<Long> measureReads() throws InterruptedException {
+        mDb.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(mWriterLocationId)});
+
+        CountDownLatch started = new CountDownLatch(1);
+        Thread writer = startIngest(started);
+        started.await();
+
+        List<Long> latencies = new ArrayList<Long>();
+        String[] args = {TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)};
+        do {
+            long start = System.nanoTime();
+            Cursor cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(mDb,
+                    null, WeatherProvider.sLocationSettingWithStartDateSelection, args,
+                    null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            // getCount runs the query to the end
+            assertEquals(14, cursor.getCount());
+            cursor.close();
+            latencies.add((System.nanoTime() - start) / 1000);
+        } while (writer.isAlive());
+        writer.join();
+
+        Collections.sort(latencies);
+        return latencies;
+    }
+
+    private static long percentile(List<Long> sorted, int percent) {
+        int index = (int) Math.ceil(sorted.size() * percent / 100.0) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+
+    public void testReadersDuringIngest() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+
+        mDb.disableWriteAheadLogging();
+        List<Long> rollback = measureReads();
+        mDb.enableWriteAheadLogging();
+        List<Long> wal = measureReads();
+
+        Log.d(LOG_TAG, "Reads during a " + INGEST_ROWS + " row ingest, rollback journal: "
+                + rollback.size() + " reads, p50 " + percentile(rollback, 50) + "us, p99 "
+                + percentile(rollback, 99) + "us");
+        Log.d(LOG_TAG, "Reads during a " + INGEST_ROWS + " row ingest, write-ahead log: "
+                + wal.size() + " reads, p50 " + percentile(wal, 50) + "us, p99 "
+                + percentile(wal, 99) + "us");
+
+        // Without the log, a reader waits out the whole transaction
+        assertTrue("Error: readers were no better off with the write-ahead log",
+                percentile(wal, 99) < percentile(rollback, 99));
+        assertTrue(wal.size() > rollback.size());
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    The hourly forecast: what goes in through the provider comes back out, hour by hour and rolled
+    up by day, and ten times the daily forecast's rows stay within the space budget.
+ */
+public class TestHourly extends AndroidTestCase {
+    public static final String LOG_TAG = TestHourly.class.getSimpleName();
+
+    // What an hourly row may cost on average, table and index together.  The daily table takes
+    // about 117 bytes a row, so this holds ten times the rows to under five times the space.
+    static final int HOURLY_BYTES_PER_ROW_BUDGET = 56;
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int STEPS_PER_DAY = 8;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    /*
+        Every 3 hours from TEST_DATE's day on.  The temperature is the day number in tenths of a
+        degree plus the step within the day, so each day's min and max are easy to predict.
+     */
+    static ContentValues[] createHourlyValues(long locationRowId, int days) {
+        long firstDay = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        ContentValues[] values = new ContentValues[days * STEPS_PER_DAY];
+        for (int i = 0; i < values.length; i++) {
+            ContentValues row = new ContentValues();
+            row.put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+            row.put(HourlyEntry.COLUMN_DATE, firstDay + (i / STEPS_PER_DAY) * DAY_IN_MILLIS);
+            row.put(HourlyEntry.COLUMN_HOUR, (i % STEPS_PER_DAY) * 3);
+            row.put(HourlyEntry.COLUMN_TEMP, (i / STEPS_PER_DAY) * 10 + i % STEPS_PER_DAY);
+            row.put(HourlyEntry.COLUMN_HUMIDITY, 78);
+            row.put(HourlyEntry.COLUMN_WEATHER_ID, 600);
+            values[i] = row;
+        }
+        return values;
+    }
+
+    public void testInsertAndReadHourly() {
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        ContentValues[] values = createHourlyValues(locationRowId, 5);
+
+        TestUtilities.TestContentObserver hourlyObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(HourlyEntry.CONTENT_URI, true, hourlyObserver);
+        assertEquals(values.length, mContext.getContentResolver().bulkInsert(
+                HourlyEntry.buildHourlyIngestUri(0), values));
+        hourlyObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(hourlyObserver);
+
+        // The same hours again replace what's there rather than piling up
+        mContext.getContentResolver().bulkInsert(HourlyEntry.buildHourlyIngestUri(0), values);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION), null, null, null, null);
+        assertEquals(values.length, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            TestUtilities.validateCurrentRecord("testInsertAndReadHourly step " + i, cursor, values[i]);
+        }
+        cursor.close();
+
+        // From the third day on
+        long thirdDay = values[2 * STEPS_PER_DAY].getAsLong(HourlyEntry.COLUMN_DATE);
+        cursor = mContext.getContentResolver().query(HourlyEntry.buildHourlyLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, thirdDay), null, null, null, null);
+        assertEquals(3 * STEPS_PER_DAY, cursor.getCount());
+        cursor.close();
+
+        // Purging the first two days leaves three
+        mContext.getContentResolver().bulkInsert(HourlyEntry.buildHourlyIngestUri(
+                values[STEPS_PER_DAY].getAsLong(HourlyEntry.COLUMN_DATE)), new ContentValues[0]);
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION), null, null, null, null);
+        assertEquals(3 * STEPS_PER_DAY, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation("nowhere"), null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testDailyRollUp() {
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        ContentValues[] values = createHourlyValues(locationRowId, 5);
+        mContext.getContentResolver().bulkInsert(HourlyEntry.buildHourlyIngestUri(0), values);
+        // Another location's hours stay out of it
+        mContext.getContentResolver().bulkInsert(HourlyEntry.buildHourlyIngestUri(0),
+                createHourlyValues(insertLocation("elsewhere"), 5));
+
+        Cursor cursor = mContext.getContentResolver().query(HourlyEntry.buildHourlyDailyWithStartDate(
+                TestUtilities.TEST_LOCATION, values[0].getAsLong(HourlyEntry.COLUMN_DATE)),
+                null, null, null, null);
+        assertEquals(5, cursor.getCount());
+        for (int day = 0; cursor.moveToNext(); day++) {
+            assertEquals(values[day * STEPS_PER_DAY].getAsLong(HourlyEntry.COLUMN_DATE).longValue(),
+                    cursor.getLong(cursor.getColumnIndex(HourlyEntry.COLUMN_DATE)));
+            assertEquals(day, cursor.getDouble(cursor.getColumnIndex(HourlyEntry.COLUMN_MIN_TEMP)), 1e-9);
+            assertEquals(day + (STEPS_PER_DAY - 1) / 10.0,
+                    cursor.getDouble(cursor.getColumnIndex(HourlyEntry.COLUMN_MAX_TEMP)), 1e-9);
+        }
+        cursor.close();
+    }
+
+    private static long databaseBytes(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null) *
+                DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+
+    /*
+        Fifty locations, each with the daily forecast's 14 rows and ten times as many hourly ones,
+        written the way syncs write them: a location at a time.
+     */
+    public void testStorageBudget() {
+        final int locations = 50;
+        final int days = 14;
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        try {
+            long[] locationRowIds = new long[locations];
+            ContentValues[][] dailyValues = new ContentValues[locations][];
+            for (int i = 0; i < locations; i++) {
+                locationRowIds[i] = insertLocation("location-" + i);
+                dailyValues[i] = new ContentValues[days];
+                for (int day = 0; day < days; day++) {
+                    dailyValues[i][day] = TestUtilities.createWeatherValues(locationRowIds[i]);
+                    dailyValues[i][day].put(WeatherEntry.COLUMN_DATE,
+                            TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                }
+            }
+
+            long before = databaseBytes(db);
+            long start = SystemClock.elapsedRealtime();
+            for (int i = 0; i < locations; i++) {
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, dailyValues[i]);
+            }
+            long dailyMillis = SystemClock.elapsedRealtime() - start;
+            long dailyBytes = databaseBytes(db) - before;
+
+            int hourlyRows = 0;
+            before = databaseBytes(db);
+            start = SystemClock.elapsedRealtime();
+            for (int i = 0; i < locations; i++) {
+                // 10 times the daily rows: 140 steps, which at 8 a day is 17.5 days
+                ContentValues[] values = createHourlyValues(locationRowIds[i], 18);
+                ContentValues[] tenTimes = new ContentValues[10 * days];
+                System.arraycopy(values, 0, tenTimes, 0, tenTimes.length);
+                hourlyRows += mContext.getContentResolver().bulkInsert(
+                        HourlyEntry.buildHourlyIngestUri(0), tenTimes);
+            }
+            long hourlyMillis = SystemClock.elapsedRealtime() - start;
+            long hourlyBytes = databaseBytes(db) - before;
+            assertEquals(locations * 10 * days, hourlyRows);
+
+            Log.d(LOG_TAG, locations + " locations: daily " + dailyBytes / (locations * days)
+                    + " bytes/row, written in " + dailyMillis + " ms; hourly "
+                    + hourlyBytes / hourlyRows + " bytes/row, written in " + hourlyMillis + " ms");
+            assertTrue("Error: hourly rows take " + hourlyBytes / hourlyRows + " bytes each",
+                    hourlyBytes <= (long) HOURLY_BYTES_PER_ROW_BUDGET * hourlyRows);
+        } finally {
+            dbHelper.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+public class TestLocationCache extends AndroidTestCase {
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private long insertLocation(String locationSetting, double lat, double lon) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "City " + locationSetting);
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        long id = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+        assertTrue("Error: Failure to insert location " + locationSetting, id != -1);
+        return id;
+    }
+
+    /*
+        The first lookup loads the table; after that, known settings never touch the database and
+        unknown ones come back null.
+     */
+    public void testWarmsOnFirstLookup() {
+        long northPoleId = insertLocation("99705", 64.7488, -147.353);
+        long mountainViewId = insertLocation("94043", 37.386, -122.084);
+        LocationCache cache = new LocationCache();
+
+        LocationCache.Entry northPole = cache.get(mDb, "99705");
+        assertEquals(northPoleId, northPole.id);
+        assertEquals(64.7488, northPole.latitude);
+        assertEquals(-147.353, northPole.longitude);
+        assertEquals(1, cache.getMissCount());
+
+        assertEquals(mountainViewId, cache.get(mDb, "94043").id);
+        assertEquals(northPoleId, cache.get(mDb, "99705").id);
+        assertEquals("Error: the warm cache went back to the database", 2, cache.getHitCount());
+
+        assertNull(cache.get(mDb, "nowhere"));
+    }
+
+    public void testInvalidate() {
+        long id = insertLocation("99705", 64.7488, -147.353);
+        LocationCache cache = new LocationCache();
+        assertEquals(id, cache.get(mDb, "99705").id);
+
+        ContentValues renamed = new ContentValues();
+        renamed.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, "renamed");
+        mDb.update(WeatherContract.LocationEntry.TABLE_NAME, renamed, null, null);
+        cache.invalidate();
+
+        assertNull("Error: a renamed location was still cached", cache.get(mDb, "99705"));
+        assertEquals(id, cache.get(mDb, "renamed").id);
+    }
+
+    /*
+        More locations than the cache holds: the ones that don't fit are still found, through the
+        database.
+     */
+    public void testMoreLocationsThanFit() {
+        int count = LocationCache.MAX_LOCATIONS + 10;
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = insertLocation("location-" + i, i, -i);
+        }
+        LocationCache cache = new LocationCache();
+        for (int i = 0; i < count; i++) {
+            LocationCache.Entry entry = cache.get(mDb, "location-" + i);
+            assertNotNull("Error: location " + i + " wasn't found", entry);
+            assertEquals(ids[i], entry.id);
+        }
+        assertNull(cache.get(mDb, "nowhere"));
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Builds databases as older versions of the app left them, opens them with the current
+    WeatherDbHelper, and checks that the rows survived and the schema ended up exactly where a
+    fresh install would put it.
+ */
+public class TestMigrations extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestMigrations.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    // The schema as version 2 created it.  Frozen here on purpose: this is what's out there on
+    // devices, whatever WeatherDbHelper says today.
+    private static final String V2_CREATE_LOCATION =
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );";
+    private static final String V2_CREATE_WEATHER =
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, degrees REAL NOT NULL,  FOREIGN KEY (location_id) REFERENCES " +
+            "location (_id),  UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * Writes weather.db the way a version 2 install would have, with the given number of
+     * locations each holding the given number of days, and stamps it with oldVersion.
+     */
+    private void buildVersion2Database(int oldVersion, int locations, int days) {
+        File path = mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        db.execSQL(V2_CREATE_LOCATION);
+        db.execSQL(V2_CREATE_WEATHER);
+
+        db.beginTransaction();
+        try {
+            SQLiteStatement location = db.compileStatement("INSERT INTO location " +
+                    "(location_setting, city_name, coord_lat, coord_long) VALUES (?, ?, ?, ?)");
+            SQLiteStatement weather = db.compileStatement("INSERT INTO weather " +
+                    "(location_id, date, short_desc, weather_id, min, max, humidity, pressure, " +
+                    "wind, degrees) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            for (int i = 0; i < locations; i++) {
+                location.bindString(1, "location-" + i);
+                location.bindString(2, "City " + i);
+                location.bindDouble(3, 64.7488 + i);
+                location.bindDouble(4, -147.353 + i);
+                long locationId = location.executeInsert();
+                for (int day = 0; day < days; day++) {
+                    weather.bindLong(1, locationId);
+                    weather.bindLong(2, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                    weather.bindString(3, "Asteroids");
+                    weather.bindLong(4, 321);
+                    weather.bindDouble(5, 65 + day % 7);
+                    weather.bindDouble(6, 75 + day % 11);
+                    weather.bindDouble(7, 1.2);
+                    weather.bindDouble(8, 1.3);
+                    weather.bindDouble(9, 5.5);
+                    weather.bindDouble(10, 1.1);
+                    weather.executeInsert();
+                }
+            }
+            location.close();
+            weather.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.setVersion(oldVersion);
+        db.close();
+    }
+
+    // Every table and index, minus the ones SQLite and Android keep for themselves
+    private static List<String> readSchema(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master " +
+                "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        List<String> schema = new ArrayList<String>();
+        while (cursor.moveToNext()) {
+            // Whitespace differences don't matter to SQLite, so don't let them matter here
+            String sql = cursor.isNull(2) ? "" : cursor.getString(2).replaceAll("\\s+", " ");
+            schema.add(cursor.getString(0) + " " + cursor.getString(1) + ": " + sql);
+        }
+        cursor.close();
+        Collections.sort(schema);
+        return schema;
+    }
+
+    private List<String> readFreshSchema() {
+        SQLiteDatabase fresh = SQLiteDatabase.create(null);
+        new WeatherDbHelper(mContext).onCreate(fresh);
+        List<String> schema = readSchema(fresh);
+        fresh.close();
+        return schema;
+    }
+
+    public void testStepsAreContiguous() {
+        for (int version = WeatherMigrations.OLDEST_MIGRATABLE_VERSION;
+             version <= WeatherDbHelper.DATABASE_VERSION; version++) {
+            assertTrue("Error: no migration path from version " + version,
+                    WeatherMigrations.canMigrate(version, WeatherDbHelper.DATABASE_VERSION));
+        }
+        assertFalse(WeatherMigrations.canMigrate(1, WeatherDbHelper.DATABASE_VERSION));
+    }
+
+    public void testMigrateFromVersion2() {
+        // Twenty locations with a little under seven years of days each
+        final int locations = 20;
+        final int days = 2500;
+        buildVersion2Database(2, locations, days);
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        long start = SystemClock.elapsedRealtime();
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.d(LOG_TAG, "Migrated " + (locations * days) + " weather rows from version 2 to "
+                + WeatherDbHelper.DATABASE_VERSION + " in " + elapsed + "ms");
+
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        assertEquals(locations,
+                DatabaseUtils.queryNumEntries(db, WeatherContract.LocationEntry.TABLE_NAME));
+        assertEquals(locations * days,
+                DatabaseUtils.queryNumEntries(db, WeatherContract.WeatherEntry.TABLE_NAME));
+
+        // Spot check one row all the way through the provider's own join
+        Cursor cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(db, null,
+                WeatherProvider.sLocationSettingAndDaySelection,
+                new String[]{"location-7", Long.toString(TestUtilities.TEST_DATE + 100 * DAY_IN_MILLIS)},
+                null, null, null);
+        assertTrue("Error: a migrated row went missing", cursor.moveToFirst());
+        assertEquals("City 7", cursor.getString(
+                cursor.getColumnIndex(WeatherContract.LocationEntry.COLUMN_CITY_NAME)));
+        assertEquals(65.0 + 100 % 7, cursor.getDouble(
+                cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP)));
+        assertEquals(75.0 + 100 % 11, cursor.getDouble(
+                cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)));
+        cursor.close();
+
+        assertEquals("Error: a migrated database doesn't match a fresh one",
+                readFreshSchema(), readSchema(db));
+        dbHelper.close();
+    }
+
+    public void testVersion1IsRebuilt() {
+        // Nothing records what version 1 looked like, so there's no migrating it
+        buildVersion2Database(1, 2, 14);
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, WeatherContract.WeatherEntry.TABLE_NAME));
+        assertEquals(readFreshSchema(), readSchema(db));
+        dbHelper.close();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Pages through a long forecast history with both kinds of paging URI, and times the first page
+    against the whole table.
+ */
+public class TestPaging extends AndroidTestCase {
+    public static final String LOG_TAG = TestPaging.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+    private static final String[] DATE_PROJECTION = {WeatherEntry.COLUMN_DATE};
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationRowId = ContentUris.parseId(locationUri);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private void insertDays(int days) {
+        final int chunk = 10000;
+        for (int first = 0; first < days; first += chunk) {
+            ContentValues[] values = new ContentValues[Math.min(chunk, days - first)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = TestUtilities.createWeatherValues(mLocationRowId);
+                values[i].put(WeatherEntry.COLUMN_DATE,
+                        TestUtilities.TEST_DATE + (first + i) * DAY_IN_MILLIS);
+            }
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        }
+    }
+
+    /*
+        Reads every date off the cursor, the way an adapter binding every row would touch it.
+     */
+    private static List<Long> readDates(Cursor cursor) {
+        List<Long> dates = new ArrayList<Long>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            dates.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return dates;
+    }
+
+    private List<Long> query(Uri uri) {
+        return readDates(mContext.getContentResolver().query(uri, DATE_PROJECTION, null, null, null));
+    }
+
+    public void testOffsetAndKeysetPagesAgree() {
+        final int days = 1000;
+        final int pageSize = 64;
+        insertDays(days);
+
+        List<Long> everything = query(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        assertEquals(days, everything.size());
+
+        List<Long> byOffset = new ArrayList<Long>();
+        List<Long> page;
+        do {
+            page = query(WeatherEntry.buildWeatherLocationPage(TestUtilities.TEST_LOCATION, 0,
+                    pageSize, byOffset.size()));
+            assertTrue("Error: page larger than asked for", page.size() <= pageSize);
+            byOffset.addAll(page);
+        } while (page.size() == pageSize);
+        assertEquals(everything, byOffset);
+
+        List<Long> byKeyset = query(WeatherEntry.buildWeatherLocationPage(
+                TestUtilities.TEST_LOCATION, 0, pageSize, 0));
+        do {
+            page = query(WeatherEntry.buildWeatherLocationAfter(TestUtilities.TEST_LOCATION,
+                    byKeyset.get(byKeyset.size() - 1), pageSize));
+            byKeyset.addAll(page);
+        } while (page.size() == pageSize);
+        assertEquals(everything, byKeyset);
+    }
+
+    public void testPageFromStartDate() {
+        insertDays(100);
+        long startDate = TestUtilities.TEST_DATE + 50 * DAY_IN_MILLIS;
+        List<Long> page = query(WeatherEntry.buildWeatherLocationPage(
+                TestUtilities.TEST_LOCATION, startDate, 10, 5));
+        assertEquals(10, page.size());
+        assertEquals(WeatherContract.normalizeDate(startDate + 5 * DAY_IN_MILLIS),
+                page.get(0).longValue());
+    }
+
+    public void testFirstPageLatency() {
+        final int days = 100000;
+        final int pageSize = 20;
+        insertDays(days);
+        Uri everythingUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Uri firstPageUri = WeatherEntry.buildWeatherLocationPage(
+                TestUtilities.TEST_LOCATION, 0, pageSize, 0);
+
+        // warm up so the first timing doesn't pay for opening the database and compiling
+        query(firstPageUri);
+
+        long start = SystemClock.elapsedRealtime();
+        List<Long> everything = query(everythingUri);
+        long everythingMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(days, everything.size());
+
+        start = SystemClock.elapsedRealtime();
+        assertEquals(pageSize, query(firstPageUri).size());
+        long firstPageMillis = SystemClock.elapsedRealtime() - start;
+
+        // Deep in the history, OFFSET still steps over every row before the page; the keyset
+        // query seeks straight to it
+        long lastDateBefore = everything.get(days - pageSize - 1);
+        start = SystemClock.elapsedRealtime();
+        assertEquals(pageSize, query(WeatherEntry.buildWeatherLocationPage(
+                TestUtilities.TEST_LOCATION, 0, pageSize, days - pageSize)).size());
+        long deepOffsetMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        assertEquals(pageSize, query(WeatherEntry.buildWeatherLocationAfter(
+                TestUtilities.TEST_LOCATION, lastDateBefore, pageSize)).size());
+        long deepKeysetMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.d(LOG_TAG, days + " rows: whole table " + everythingMillis + " ms, first page "
+                + firstPageMillis + " ms, last page by offset " + deepOffsetMillis
+                + " ms, last page by keyset " + deepKeysetMillis + " ms");
+    }
+}
@@ -16,6 +16,8 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -24,12 +26,15 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -512,4 +517,270 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    private static long getWeatherRowId(Cursor cursor) {
+        return cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID));
+    }
+
+    /*
+        The incremental bulk insert used by the sync adapter should only touch rows that changed,
+        keep the _ids of rows it updates, purge old days and notify once, or not at all.
+     */
+    public void testIncrementalBulkInsert() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        Uri incrementalUri = WeatherEntry.buildWeatherIncrementalUri(0);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        int changed = mContext.getContentResolver().bulkInsert(incrementalUri,
+                createBulkInsertWeatherValues(locationRowId));
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, changed);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] originalIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            originalIds[i] = getWeatherRowId(cursor);
+        }
+        cursor.close();
+
+        // The same forecast again is a no-op, and nobody hears about it
+        weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        changed = mContext.getContentResolver().bulkInsert(incrementalUri,
+                createBulkInsertWeatherValues(locationRowId));
+        weatherObserver.expectNoNotification();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals("Error: an unchanged forecast was written", 0, changed);
+
+        // Change two days; only those are written, in place
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        values[2].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        values[7].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        changed = mContext.getContentResolver().bulkInsert(incrementalUri, values);
+        assertEquals(2, changed);
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals("Error: row " + i + " was replaced instead of updated",
+                    originalIds[i], getWeatherRowId(cursor));
+            TestUtilities.validateCurrentRecord("testIncrementalBulkInsert row " + i, cursor, values[i]);
+        }
+        cursor.close();
+
+        // Purging on or before the fourth day leaves six
+        long purgeBefore = values[3].getAsLong(WeatherEntry.COLUMN_DATE);
+        changed = mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherIncrementalUri(purgeBefore), values);
+        assertEquals(4, changed);
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 4, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testNotificationBatch() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_BEGIN_NOTIFICATION_BATCH, null, null);
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        values[0].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values[1]);
+
+        // Nothing goes out while the batch is open
+        Thread.sleep(500);
+        assertEquals("Error: a notification escaped the batch", 0, weatherObserver.mChangeCount);
+
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_END_NOTIFICATION_BATCH, null, null);
+        assertEquals(2, result.getInt(WeatherContract.EXTRA_SUPPRESSED_NOTIFICATIONS));
+
+        Thread.sleep(500);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals("Error: three writes to one URI should notify it once",
+                1, weatherObserver.mChangeCount);
+    }
+
+    public void testApplyBatchNotifiesOnce() throws Exception {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues values : createBulkInsertWeatherValues(locationRowId)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values).build());
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        Thread.sleep(500);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals("Error: a batch of " + operations.size() + " inserts should notify once",
+                1, weatherObserver.mChangeCount);
+    }
+
+    /*
+        The sync writes a location and its weather as one batch: the weather rows pick up the
+        location's id by back-reference, and if any operation fails nothing is kept.
+     */
+    public void testApplyBatchIsOneTransaction() throws Exception {
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(0);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.buildLocationIfAbsentUri())
+                .withValues(TestUtilities.createNorthPoleLocationValues()).build());
+        for (ContentValues values : weatherValues) {
+            operations.add(ContentProviderOperation.newUpdate(WeatherEntry.buildWeatherIncrementalUri(0))
+                    .withValues(values)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+
+        // A weather row without a description breaks the batch after everything else is written
+        ArrayList<ContentProviderOperation> failing = new ArrayList<ContentProviderOperation>(operations);
+        ContentValues broken = TestUtilities.createWeatherValues(0);
+        broken.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        failing.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(broken)
+                .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, failing);
+            fail("Error: the broken row should have failed the batch");
+        } catch (android.database.SQLException expected) {
+            // the whole batch rolls back
+        }
+        assertEquals("Error: a failed batch left a location behind", 0, countRows(LocationEntry.CONTENT_URI));
+        assertEquals("Error: a failed batch left weather behind", 0, countRows(WeatherEntry.CONTENT_URI));
+
+        ContentProviderResult[] results =
+                mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        for (int i = 1; i < results.length; i++) {
+            assertEquals("Error: new day " + i + " wasn't counted", 1, results[i].count.intValue());
+        }
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationRowId)},
+                null);
+        assertEquals(weatherValues.length, cursor.getCount());
+        cursor.close();
+
+        // The same batch again finds the location and changes nothing
+        results = mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        assertEquals(locationRowId, ContentUris.parseId(results[0].uri));
+        assertEquals(1, countRows(LocationEntry.CONTENT_URI));
+        for (int i = 1; i < results.length; i++) {
+            assertEquals("Error: unchanged day " + i + " was written", 0, results[i].count.intValue());
+        }
+    }
+
+    /*
+        A row the upsert can't insert fails the sync's whole batch, purge included, rather than
+        being dropped while the rest commits.
+     */
+    public void testApplyBatchRollsBackInvalidUpsert() throws Exception {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        // The first day is stored already, so the purge below would move it to the archive
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues[0]);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        Uri upsertUri = WeatherEntry.buildWeatherIncrementalUri(0);
+        for (int i = 1; i < weatherValues.length; i++) {
+            ContentValues values = weatherValues[i];
+            if (i == weatherValues.length / 2) {
+                values.remove(WeatherEntry.COLUMN_SHORT_DESC);
+            }
+            operations.add(ContentProviderOperation.newUpdate(upsertUri).withValues(values).build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.buildWeatherIncrementalUri(
+                weatherValues[0].getAsLong(WeatherEntry.COLUMN_DATE))).build());
+
+        int archivedRows = countRows(WeatherContract.ArchiveEntry.CONTENT_URI);
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: the row without a description should have failed the batch");
+        } catch (android.database.SQLException expected) {
+            // the whole batch rolls back
+        }
+        assertEquals("Error: a failed batch left weather behind, or purged it",
+                1, countRows(WeatherEntry.CONTENT_URI));
+        assertEquals("Error: a failed batch archived a day",
+                archivedRows, countRows(WeatherContract.ArchiveEntry.CONTENT_URI));
+    }
+
+    public void testIncrementalUpdate() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        Uri upsertUri = WeatherEntry.buildWeatherIncrementalUri(0);
+
+        ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+        assertEquals(1, mContext.getContentResolver().update(upsertUri, new ContentValues(values), null, null));
+        assertEquals(0, mContext.getContentResolver().update(upsertUri, new ContentValues(values), null, null));
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        assertEquals(1, mContext.getContentResolver().update(upsertUri, new ContentValues(values), null, null));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        TestUtilities.validateCursor("testIncrementalUpdate", cursor, values);
+    }
+
+    /*
+        Inserting a location if absent is answered from the provider's cache, so every other way
+        of changing the location table has to invalidate it.
+     */
+    public void testIfAbsentInsertFollowsLocationWrites() {
+        ContentValues northPole = TestUtilities.createNorthPoleLocationValues();
+        Uri ifAbsentUri = LocationEntry.buildLocationIfAbsentUri();
+        long firstId = ContentUris.parseId(mContext.getContentResolver().insert(ifAbsentUri, northPole));
+        assertEquals(firstId, ContentUris.parseId(mContext.getContentResolver().insert(ifAbsentUri, northPole)));
+        assertEquals(1, countRows(LocationEntry.CONTENT_URI));
+
+        // Renamed through the provider, the old setting is free again
+        ContentValues renamed = new ContentValues();
+        renamed.put(LocationEntry.COLUMN_LOCATION_SETTING, "renamed");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, renamed,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(firstId)});
+        long secondId = ContentUris.parseId(mContext.getContentResolver().insert(ifAbsentUri, northPole));
+        assertTrue("Error: a renamed location was handed back", secondId != firstId);
+        assertEquals(2, countRows(LocationEntry.CONTENT_URI));
+
+        // Deleted through the provider, it's inserted afresh
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(secondId)});
+        long thirdId = ContentUris.parseId(mContext.getContentResolver().insert(ifAbsentUri, northPole));
+        assertTrue("Error: a deleted location was handed back", thirdId != secondId);
+        assertEquals(2, countRows(LocationEntry.CONTENT_URI));
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
 }
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs EXPLAIN QUERY PLAN over the queries behind each provider URI and fails if SQLite would
+    scan a whole table or sort the results itself.  Either one grows with the number of days
+    stored, which is fine for two weeks of forecast and not for years of history.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    private static final String SORT_ORDER = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+
+        // Enough rows that a scan and a search are really different things
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        WeatherBulkInserter inserter = new WeatherBulkInserter(mDb);
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+                values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                        TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+                inserter.insert(values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            inserter.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private List<String> explain(String sql, String[] args) {
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        List<String> steps = new ArrayList<String>();
+        // The detail column is last, whatever the SQLite version calls the others
+        int detailIndex = cursor.getColumnCount() - 1;
+        while (cursor.moveToNext()) {
+            steps.add(cursor.getString(detailIndex));
+        }
+        cursor.close();
+        return steps;
+    }
+
+    private void assertIndexed(String name, String sql, String[] args) {
+        List<String> steps = explain(sql, args);
+        assertFalse("Error: no query plan for " + name, steps.isEmpty());
+        for (String step : steps) {
+            // Older SQLite says "SCAN TABLE weather", newer just "SCAN weather"
+            assertFalse("Error: " + name + " scans a whole table: " + steps,
+                    step.startsWith("SCAN"));
+            assertFalse("Error: " + name + " sorts in a temp b-tree: " + steps,
+                    step.contains("TEMP B-TREE"));
+        }
+    }
+
+    private String buildJoinQuery(String selection) {
+        return buildJoinQuery(selection, null);
+    }
+
+    private String buildJoinQuery(String selection, String limit) {
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, selection, null, null, SORT_ORDER, limit);
+    }
+
+    public void testWeatherWithLocation() {
+        assertIndexed("weather/*",
+                buildJoinQuery(WeatherProvider.sLocationSettingSelection),
+                new String[]{TestUtilities.TEST_LOCATION});
+    }
+
+    public void testWeatherWithLocationAndStartDate() {
+        assertIndexed("weather/*?date=",
+                buildJoinQuery(WeatherProvider.sLocationSettingWithStartDateSelection),
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    public void testWeatherWithLocationAndDate() {
+        assertIndexed("weather/*/#",
+                buildJoinQuery(WeatherProvider.sLocationSettingAndDaySelection),
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    public void testWeatherPages() {
+        assertIndexed("weather/*?limit=&offset=",
+                buildJoinQuery(WeatherProvider.sLocationSettingSelection, "100,20"),
+                new String[]{TestUtilities.TEST_LOCATION});
+        // The next page after a date has to seek, not scan up to it
+        assertIndexed("weather/*?after=&limit=",
+                buildJoinQuery(WeatherProvider.sLocationSettingAfterDateSelection, "20"),
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    public void testWeatherStats() {
+        // One range over the index, aggregated as it's read
+        assertIndexed("weather/*/stats",
+                WeatherProvider.sWeatherStatsQueryBuilder.buildQuery(null,
+                        WeatherProvider.sWeatherByLocationAndRangeSelection, null, null, null, null),
+                new String[]{"1", Long.toString(TestUtilities.TEST_DATE),
+                        Long.toString(TestUtilities.TEST_DATE + 365 * DAY_IN_MILLIS)});
+    }
+
+        public void testIncrementalInsertQueries() {
+        // The stored rows an incremental bulk insert compares against
+        assertIndexed("weather rows for a location",
+                "SELECT * FROM " + WeatherContract.WeatherEntry.TABLE_NAME + " WHERE " +
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{"1"});
+        // ...and the purge that follows it
+        assertIndexed("weather purge",
+                "DELETE FROM " + WeatherContract.WeatherEntry.TABLE_NAME + " WHERE " +
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    public void testHourly() {
+        String[] args = new String[]{"1", Long.toString(TestUtilities.TEST_DATE)};
+        assertIndexed("hourly/*",
+                SQLiteQueryBuilder.buildQueryString(false, WeatherContract.HourlyEntry.TABLE_NAME,
+                        null, WeatherProvider.sHourlyByLocationWithStartDateSelection, null, null,
+                        WeatherProvider.sHourlyOrder, null),
+                args);
+        // The days come out of the index already grouped
+        assertIndexed("hourly/*/daily",
+                SQLiteQueryBuilder.buildQueryString(false, WeatherContract.HourlyEntry.TABLE_NAME,
+                        WeatherProvider.sHourlyDailyColumns,
+                        WeatherProvider.sHourlyByLocationWithStartDateSelection,
+                        WeatherContract.HourlyEntry.COLUMN_DATE, null,
+                        WeatherProvider.sHourlyDailyOrder, null),
+                args);
+    }
+
+    public void testArchive() {
+        assertIndexed("archive/*",
+                WeatherProvider.sArchiveQueryBuilder.buildQuery(null,
+                        WeatherProvider.sArchiveByLocationWithStartDateSelection, null, null,
+                        WeatherProvider.sArchiveOrder, null),
+                new String[]{"1", Long.toString(TestUtilities.TEST_DATE)});
+        // Compaction's lookups, once per location and week
+        assertIndexed("archive first day", WeatherArchive.FIRST_DAY_SQL, new String[]{"1"});
+        assertIndexed("archive week", WeatherArchive.COUNT_WEEK_SQL,
+                new String[]{"1", Long.toString(TestUtilities.TEST_DATE),
+                        Long.toString(TestUtilities.TEST_DATE + 7 * DAY_IN_MILLIS)});
+    }
+
+        public void testLocationBySetting() {
+        // How the sync adapter finds a location's row id
+        assertIndexed("location by setting",
+                "SELECT " + WeatherContract.LocationEntry._ID + " FROM " +
+                        WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION});
+    }
+
+}
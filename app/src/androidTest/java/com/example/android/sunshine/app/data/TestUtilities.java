@@ -122,6 +122,7 @@ public class TestUtilities extends AndroidTestCase {
     static class TestContentObserver extends ContentObserver {
         final HandlerThread mHT;
         boolean mContentChanged;
+        volatile int mChangeCount;
 
         static TestContentObserver getTestContentObserver() {
             HandlerThread ht = new HandlerThread("ContentObserverThread");
@@ -143,6 +144,7 @@ public class TestUtilities extends AndroidTestCase {
         @Override
         public void onChange(boolean selfChange, Uri uri) {
             mContentChanged = true;
+            mChangeCount++;
         }
 
         public void waitForNotificationOrFail() {
@@ -158,6 +160,19 @@ public class TestUtilities extends AndroidTestCase {
             }.run();
             mHT.quit();
         }
+
+        /*
+            The opposite check: give the provider a moment, then make sure nothing was sent.
+         */
+        public void expectNoNotification() {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                // fall through and check what we have
+            }
+            mHT.quit();
+            assertFalse("Error: Unexpected change notification", mContentChanged);
+        }
     }
 
     static TestContentObserver getTestContentObserver() {
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks the stats URI against the same figures worked out in Java from the raw rows, and
+    times one against the other over a year of days for fifty locations.
+ */
+public class TestWeatherStats extends AndroidTestCase {
+    public static final String LOG_TAG = TestWeatherStats.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+    private static final double DELTA = 1e-9;
+
+    private static final String[] RAW_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static long dayDate(int day) {
+        return TestUtilities.TEST_DATE + day * DAY_IN_MILLIS;
+    }
+
+    /*
+        Days that differ from one another and from one location to the next, so that a query
+        mixing up locations or dropping the ends of the range gets different figures.
+     */
+    private long insertLocationDays(String locationSetting, int days, int seed) {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues));
+
+        ContentValues[] values = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationRowId);
+            values[i].put(WeatherEntry.COLUMN_DATE, dayDate(i));
+            double low = (i + seed) % 30 - 10;
+            values[i].put(WeatherEntry.COLUMN_MIN_TEMP, low);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, low + 5 + (i + seed) % 7);
+            values[i].put(WeatherEntry.COLUMN_HUMIDITY, 50 + (i * 3 + seed) % 40);
+            values[i].put(WeatherEntry.COLUMN_PRESSURE, 1000 + (i + seed) % 20);
+            values[i].put(WeatherEntry.COLUMN_WIND_SPEED, ((i + seed) % 15) * 0.5);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        return locationRowId;
+    }
+
+    /*
+        The way a consumer without the stats URI gets the same answer: every row over, then
+        min, max and sum in Java.  Returns the figures in STATS_COLUMNS order.
+     */
+    private double[] computeStatsInJava(String locationSetting, long fromDate, long toDate) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, fromDate),
+                RAW_COLUMNS, null, null, null);
+        long lastDate = WeatherContract.normalizeDate(toDate);
+        int days = 0;
+        double low = Double.MAX_VALUE;
+        double high = -Double.MAX_VALUE;
+        double tempSum = 0;
+        // humidity, pressure and wind: min, max and sum of each
+        double[] mins = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+        double[] maxes = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        double[] sums = new double[3];
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.getLong(0) > lastDate) {
+                    continue;
+                }
+                low = Math.min(low, cursor.getDouble(1));
+                high = Math.max(high, cursor.getDouble(2));
+                tempSum += (cursor.getDouble(1) + cursor.getDouble(2)) / 2;
+                for (int c = 0; c < 3; c++) {
+                    double value = cursor.getDouble(3 + c);
+                    mins[c] = Math.min(mins[c], value);
+                    maxes[c] = Math.max(maxes[c], value);
+                    sums[c] += value;
+                }
+                days++;
+            }
+        } finally {
+            cursor.close();
+        }
+        double[] stats = {days, low, high, tempSum / days,
+                mins[0], maxes[0], sums[0] / days,
+                mins[1], maxes[1], sums[1] / days,
+                mins[2], maxes[2], sums[2] / days};
+        return stats;
+    }
+
+    private static final String[] STATS_COLUMNS = {
+            WeatherEntry.COLUMN_DAY_COUNT,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_AVG_TEMP,
+            WeatherEntry.COLUMN_MIN_HUMIDITY,
+            WeatherEntry.COLUMN_MAX_HUMIDITY,
+            WeatherEntry.COLUMN_AVG_HUMIDITY,
+            WeatherEntry.COLUMN_MIN_PRESSURE,
+            WeatherEntry.COLUMN_MAX_PRESSURE,
+            WeatherEntry.COLUMN_AVG_PRESSURE,
+            WeatherEntry.COLUMN_MIN_WIND_SPEED,
+            WeatherEntry.COLUMN_MAX_WIND_SPEED,
+            WeatherEntry.COLUMN_AVG_WIND_SPEED
+    };
+
+    private Cursor queryStats(String locationSetting, long fromDate, long toDate) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherStats(locationSetting, fromDate, toDate),
+                null, null, null, null);
+        assertEquals("Error: stats should come back as a single row", 1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        return cursor;
+    }
+
+    public void testStatsMatchRawRows() {
+        insertLocationDays(TestUtilities.TEST_LOCATION, 60, 0);
+        insertLocationDays("elsewhere", 60, 11);
+
+        int[][] ranges = {{0, 59}, {10, 20}, {17, 17}, {0, 6}};
+        for (int[] range : ranges) {
+            long fromDate = dayDate(range[0]);
+            double[] expected = computeStatsInJava(TestUtilities.TEST_LOCATION, fromDate,
+                    dayDate(range[1]));
+            Cursor cursor = queryStats(TestUtilities.TEST_LOCATION, fromDate, dayDate(range[1]));
+            assertEquals(range[1] - range[0] + 1, (int) expected[0]);
+            for (int i = 0; i < STATS_COLUMNS.length; i++) {
+                assertEquals("Error: " + STATS_COLUMNS[i] + " for days " + range[0] + " to " +
+                        range[1], expected[i],
+                        cursor.getDouble(cursor.getColumnIndex(STATS_COLUMNS[i])), DELTA);
+            }
+            cursor.close();
+        }
+    }
+
+    public void testOpenEndedAndEmptyRanges() {
+        insertLocationDays(TestUtilities.TEST_LOCATION, 30, 0);
+
+        Cursor cursor = queryStats(TestUtilities.TEST_LOCATION, 0, 0);
+        assertEquals(30, cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_DAY_COUNT)));
+        cursor.close();
+
+        cursor = queryStats(TestUtilities.TEST_LOCATION, dayDate(25), 0);
+        assertEquals(5, cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_DAY_COUNT)));
+        cursor.close();
+
+        cursor = queryStats(TestUtilities.TEST_LOCATION, 0, dayDate(4));
+        assertEquals(5, cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_DAY_COUNT)));
+        cursor.close();
+
+        // Past the last day, and a location we've never heard of: no days, no figures
+        cursor = queryStats(TestUtilities.TEST_LOCATION, dayDate(40), dayDate(50));
+        assertEquals(0, cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_DAY_COUNT)));
+        assertTrue(cursor.isNull(cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP)));
+        cursor.close();
+
+        cursor = queryStats("nowhere", 0, 0);
+        assertEquals(0, cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_DAY_COUNT)));
+        cursor.close();
+    }
+
+    public void testProjection() {
+        insertLocationDays(TestUtilities.TEST_LOCATION, 10, 0);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherStats(TestUtilities.TEST_LOCATION, 0, 0),
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_MIN_TEMP},
+                null, null, null);
+        assertEquals(2, cursor.getColumnCount());
+        assertTrue(cursor.moveToFirst());
+        assertTrue(cursor.getDouble(0) > cursor.getDouble(1));
+        cursor.close();
+    }
+
+    /*
+        A year of days for each of fifty locations, summarized once per location each way.
+     */
+    public void testStatsTime() {
+        final int locations = 50;
+        final int days = 365;
+        for (int i = 0; i < locations; i++) {
+            insertLocationDays("location-" + i, days, i);
+        }
+
+        long fromDate = dayDate(0);
+        long toDate = dayDate(days - 1);
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < locations; i++) {
+            computeStatsInJava("location-" + i, fromDate, toDate);
+        }
+        long javaMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < locations; i++) {
+            queryStats("location-" + i, fromDate, toDate).close();
+        }
+        long sqlMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.d(LOG_TAG, locations + " locations, " + days + " days each: rows to Java "
+                + javaMillis + "ms, stats URI " + sqlMillis + "ms");
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory {@link ForecastTransport} that serves a fixed body.  It honors If-None-Match
+ * unless told not to, so tests can play both a well-behaved server and one that resends
+ * everything.
+ */
+public class FakeForecastTransport implements ForecastTransport {
+    public volatile byte[] body;
+    public volatile String etag = "\"fake-1\"";
+    public volatile boolean honorValidators = true;
+    public final List<Map<String, String>> requests =
+            Collections.synchronizedList(new ArrayList<Map<String, String>>());
+
+    public FakeForecastTransport(byte[] body) {
+        this.body = body;
+    }
+
+    @Override
+    public Response get(String url, Map<String, String> headers) throws IOException {
+        requests.add(new HashMap<String, String>(headers));
+        final String currentEtag = etag;
+        final boolean notModified = honorValidators && null != currentEtag
+                && currentEtag.equals(headers.get("If-None-Match"));
+        final byte[] currentBody = body;
+        return new Response() {
+            private long mRead;
+
+            @Override
+            public int getCode() {
+                return notModified ? HttpURLConnection.HTTP_NOT_MODIFIED : HttpURLConnection.HTTP_OK;
+            }
+
+            @Override
+            public String getHeader(String name) {
+                return "ETag".equals(name) ? currentEtag : null;
+            }
+
+            @Override
+            public InputStream getBody() {
+                mRead = notModified ? 0 : currentBody.length;
+                return new ByteArrayInputStream(notModified ? new byte[0] : currentBody);
+            }
+
+            @Override
+            public long getWireBytes() {
+                return mRead;
+            }
+
+            @Override
+            public long getDecodedBytes() {
+                return mRead;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
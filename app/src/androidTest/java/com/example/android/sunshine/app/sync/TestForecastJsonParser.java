@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.os.Build;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.net.HttpURLConnection;
+
+/*
+    Checks that the streaming parse produces exactly the rows the DOM parse does, and that it
+    gets there with less garbage.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    private static final int TEST_JULIAN_DAY = 2457012;  // December 20th, 2014
+
+    static final String DAY_JSON =
+            "{\"dt\":1419033600,\"temp\":{\"day\":-12.5,\"min\":-18.01,\"max\":-11.2," +
+            "\"night\":-18.01,\"eve\":-14.3,\"morn\":-16.5},\"pressure\":1003.52," +
+            "\"humidity\":78,\"weather\":[{\"id\":600,\"main\":\"Snow\"," +
+            "\"description\":\"light snow\",\"icon\":\"13d\"}],\"speed\":1.91,\"deg\":216," +
+            "\"clouds\":92,\"snow\":0.5}";
+
+    static String buildForecastJson(int days) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"city\":{\"id\":5861897,\"name\":\"North Pole\",")
+                .append("\"coord\":{\"lon\":-147.353,\"lat\":64.7488},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(DAY_JSON);
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    public void testStreamingMatchesDom() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+
+        String json = buildForecastJson(14);
+        ForecastJsonParser.Forecast dom = ForecastJsonParser.parse(json, TEST_JULIAN_DAY);
+        ForecastJsonParser.Forecast streamed = ForecastJsonParser.parse(
+                new ByteArrayInputStream(json.getBytes("UTF-8")), TEST_JULIAN_DAY);
+
+        assertEquals(HttpURLConnection.HTTP_OK, streamed.messageCode);
+        assertEquals(dom.cityName, streamed.cityName);
+        assertEquals(dom.cityLatitude, streamed.cityLatitude);
+        assertEquals(dom.cityLongitude, streamed.cityLongitude);
+        assertEquals(14, streamed.rows.size());
+        assertEquals(dom.rows.size(), streamed.rows.size());
+
+        ContentValues[] domRows = dom.toArray(7);
+        ContentValues[] streamedRows = streamed.toArray(7);
+        for (int i = 0; i < domRows.length; i++) {
+            // ContentValues.equals compares the boxed values, which also catches an int
+            // humidity turning into a double or vice versa
+            assertEquals("Error: row " + i + " differs between DOM and streaming parse",
+                    domRows[i], streamedRows[i]);
+        }
+    }
+
+    public void testErrorCode() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+
+        String json = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+        ForecastJsonParser.Forecast dom = ForecastJsonParser.parse(json, TEST_JULIAN_DAY);
+        ForecastJsonParser.Forecast streamed = ForecastJsonParser.parse(
+                new ByteArrayInputStream(json.getBytes("UTF-8")), TEST_JULIAN_DAY);
+
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, dom.messageCode);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, streamed.messageCode);
+        assertEquals(0, streamed.rows.size());
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testStreamingAllocatesLess() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+
+        int[] dayCounts = {14, 224};
+        for (int days : dayCounts) {
+            byte[] body = buildForecastJson(days).getBytes("UTF-8");
+
+            // warm up both paths so class loading doesn't show up in the numbers
+            ForecastJsonParser.parseBuffered(new ByteArrayInputStream(body), TEST_JULIAN_DAY);
+            ForecastJsonParser.parse(new ByteArrayInputStream(body), TEST_JULIAN_DAY);
+
+            Debug.startAllocCounting();
+            Debug.resetThreadAllocSize();
+            ForecastJsonParser.parseBuffered(new ByteArrayInputStream(body), TEST_JULIAN_DAY);
+            int domBytes = Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocSize();
+            ForecastJsonParser.parse(new ByteArrayInputStream(body), TEST_JULIAN_DAY);
+            int streamedBytes = Debug.getThreadAllocSize();
+            Debug.stopAllocCounting();
+
+            Log.d(LOG_TAG, days + " days, " + body.length + " byte body: buffered DOM allocated "
+                    + domBytes + " bytes, streaming allocated " + streamedBytes + " bytes");
+
+            // Counting is not supported everywhere; only compare when we got numbers
+            if (domBytes > 0) {
+                assertTrue("Error: streaming parse allocated more than the DOM parse for "
+                        + days + " days", streamedBytes < domBytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Drives ForecastValidators against a stub server that implements conditional GETs the way
+    OpenWeatherMap's front end does.
+ */
+public class TestForecastValidators extends AndroidTestCase {
+    private static final String TEST_LOCATION = "99705";
+    private static final String ETAG = "\"forecast-v1\"";
+    private static final String LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+
+    private StubHttpServer mServer;
+    private volatile byte[] mBody;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ForecastValidators.clear(mContext, TEST_LOCATION);
+        SyncStats.reset(mContext);
+        mBody = TestForecastJsonParser.buildForecastJson(14).getBytes("UTF-8");
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                if (ETAG.equals(request.headers.get("if-none-match"))) {
+                    return new StubHttpServer.Response(304, "Not Modified");
+                }
+                StubHttpServer.Response response = new StubHttpServer.Response();
+                response.headers.put("ETag", ETAG);
+                response.headers.put("Last-Modified", LAST_MODIFIED);
+                response.body = mBody;
+                return response;
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        ForecastValidators.clear(mContext, TEST_LOCATION);
+        super.tearDown();
+    }
+
+    private ForecastTransport.Response open(ForecastValidators validators) throws IOException {
+        Map<String, String> headers = new HashMap<String, String>();
+        validators.applyTo(headers);
+        return new HttpTransport().get(mServer.getUrl("/forecast/daily"), headers);
+    }
+
+    private String readAndHash(ForecastValidators validators, ForecastTransport.Response response)
+            throws IOException {
+        return validators.finishDigest(validators.digest(response.getBody()));
+    }
+
+    public void testFirstSyncIsUnconditional() throws Throwable {
+        ForecastValidators validators = ForecastValidators.load(mContext, TEST_LOCATION);
+        ForecastTransport.Response response = open(validators);
+        assertEquals(HttpURLConnection.HTTP_OK, response.getCode());
+        readAndHash(validators, response);
+        response.close();
+
+        StubHttpServer.Request request = mServer.getRequests().get(0);
+        assertNull("Error: a first sync should not send If-None-Match",
+                request.headers.get("if-none-match"));
+        assertNull("Error: a first sync should not send If-Modified-Since",
+                request.headers.get("if-modified-since"));
+    }
+
+    public void testValidatorsRoundTrip() throws Throwable {
+        ForecastValidators validators = ForecastValidators.load(mContext, TEST_LOCATION);
+        ForecastTransport.Response response = open(validators);
+        String hash = readAndHash(validators, response);
+        validators.save(mContext, response, hash);
+        response.close();
+
+        // A fresh load sees what was saved, and sends it back
+        validators = ForecastValidators.load(mContext, TEST_LOCATION);
+        assertEquals(ETAG, validators.getETag());
+        assertEquals(LAST_MODIFIED, validators.getLastModified());
+        assertTrue(validators.isUnchanged(hash));
+
+        response = open(validators);
+        assertEquals("Error: the stub server should have answered 304",
+                HttpURLConnection.HTTP_NOT_MODIFIED, response.getCode());
+        response.close();
+
+        List<StubHttpServer.Request> requests = mServer.getRequests();
+        assertEquals(2, requests.size());
+        assertEquals(ETAG, requests.get(1).headers.get("if-none-match"));
+        assertEquals(LAST_MODIFIED, requests.get(1).headers.get("if-modified-since"));
+    }
+
+    public void testBodyHashDetectsChange() throws Throwable {
+        ForecastValidators validators = ForecastValidators.load(mContext, TEST_LOCATION);
+        ForecastTransport.Response response = open(validators);
+        String firstHash = readAndHash(validators, response);
+        response.close();
+
+        // A server that ignores validators but sends the same bytes gives the same hash
+        validators = ForecastValidators.load(mContext, TEST_LOCATION);
+        response = open(validators);
+        assertEquals(firstHash, readAndHash(validators, response));
+        response.close();
+
+        mBody = TestForecastJsonParser.buildForecastJson(13).getBytes("UTF-8");
+        response = open(validators);
+        assertFalse("Error: a different body should hash differently",
+                firstHash.equals(readAndHash(validators, response)));
+        response.close();
+    }
+
+    public void testShortCircuitCounters() {
+        assertEquals(0, SyncStats.getShortCircuitedSyncs(mContext));
+        SyncStats.increment(mContext, SyncStats.SYNCS);
+        SyncStats.increment(mContext, SyncStats.SYNCS_NOT_MODIFIED);
+        SyncStats.increment(mContext, SyncStats.SYNCS);
+        SyncStats.increment(mContext, SyncStats.SYNCS_UNCHANGED_BODY);
+        SyncStats.increment(mContext, SyncStats.SYNCS);
+
+        assertEquals(3, SyncStats.get(mContext, SyncStats.SYNCS));
+        assertEquals(2, SyncStats.getShortCircuitedSyncs(mContext));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.ByteArrayInputStream;
+import java.net.HttpURLConnection;
+
+public class TestHourlyForecastParser extends AndroidTestCase {
+
+    static final long TEST_TIME = 1419033600L;  // December 20th, 2014, in seconds
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000L;
+
+    /*
+        A 3-hourly forecast with the temperature climbing a tenth of a degree every step.
+     */
+    static String buildHourlyJson(int steps) {
+        return buildHourlyJson(TEST_TIME, steps);
+    }
+
+    static String buildHourlyJson(long startSeconds, int steps) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(steps)
+                .append(",\"list\":[");
+        for (int i = 0; i < steps; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"dt\":").append(startSeconds + i * 3 * 60 * 60)
+                    .append(",\"main\":{\"temp\":").append(-12.5 + i / 10.0)
+                    .append(",\"temp_min\":-13,\"temp_max\":-12,\"pressure\":1010.2,")
+                    .append("\"humidity\":78},\"weather\":[{\"id\":600,\"main\":\"Snow\",")
+                    .append("\"description\":\"light snow\",\"icon\":\"13d\"}],")
+                    .append("\"clouds\":{\"all\":92},\"wind\":{\"speed\":1.91,\"deg\":216},")
+                    .append("\"dt_txt\":\"2014-12-20 00:00:00\"}");
+        }
+        sb.append("],\"city\":{\"id\":5861897,\"name\":\"North Pole\",")
+                .append("\"coord\":{\"lon\":-147.353,\"lat\":64.7488},\"country\":\"US\"}}");
+        return sb.toString();
+    }
+
+    public void testParse() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+
+        ForecastJsonParser.Forecast forecast = HourlyForecastParser.parse(
+                new ByteArrayInputStream(buildHourlyJson(40).getBytes("UTF-8")));
+        assertEquals(HttpURLConnection.HTTP_OK, forecast.messageCode);
+        assertEquals("North Pole", forecast.cityName);
+        assertEquals(64.7488, forecast.cityLatitude);
+        assertEquals(40, forecast.rows.size());
+
+        for (int i = 0; i < forecast.rows.size(); i++) {
+            ContentValues row = forecast.rows.get(i);
+            long date = row.getAsLong(WeatherContract.HourlyEntry.COLUMN_DATE);
+            int hour = row.getAsInteger(WeatherContract.HourlyEntry.COLUMN_HOUR);
+            assertEquals("Error: step " + i + " is at the wrong time",
+                    (TEST_TIME + i * 3 * 60 * 60) * 1000, date + hour * HOUR_IN_MILLIS);
+            assertEquals("Error: step " + i + " wasn't given its day",
+                    WeatherContract.normalizeDate(date), date);
+            assertEquals(-125 + i, row.getAsInteger(WeatherContract.HourlyEntry.COLUMN_TEMP).intValue());
+            assertEquals(78, row.getAsInteger(WeatherContract.HourlyEntry.COLUMN_HUMIDITY).intValue());
+            assertEquals(600, row.getAsInteger(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID).intValue());
+        }
+    }
+
+    public void testSkipsStepsItCannotUse() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+
+        // A daily forecast's entries have no "main" object, so none of them is an hourly step
+        ForecastJsonParser.Forecast forecast = HourlyForecastParser.parse(new ByteArrayInputStream(
+                TestForecastJsonParser.buildForecastJson(14).getBytes("UTF-8")));
+        assertEquals(HttpURLConnection.HTTP_OK, forecast.messageCode);
+        assertEquals(0, forecast.rows.size());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Exercises HttpTransport against a local stub server: compression, byte accounting,
+    connection reuse and timeouts.
+ */
+public class TestHttpTransport extends AndroidTestCase {
+    public static final String LOG_TAG = TestHttpTransport.class.getSimpleName();
+
+    private static final Map<String, String> NO_HEADERS = Collections.emptyMap();
+
+    private StubHttpServer mServer;
+    private byte[] mBody;
+    private byte[] mGzippedBody;
+    private volatile long mDelayMillis;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBody = TestForecastJsonParser.buildForecastJson(14).getBytes("UTF-8");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(mBody);
+        gzip.close();
+        mGzippedBody = bytes.toByteArray();
+
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                StubHttpServer.Response response = new StubHttpServer.Response();
+                String acceptEncoding = request.headers.get("accept-encoding");
+                if (null != acceptEncoding && acceptEncoding.contains("gzip")) {
+                    response.headers.put("Content-Encoding", "gzip");
+                    response.body = mGzippedBody;
+                } else {
+                    response.body = mBody;
+                }
+                response.delayMillis = mDelayMillis;
+                return response;
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    public void testGzipIsNegotiatedAndDecoded() throws Throwable {
+        ForecastTransport.Response response =
+                new HttpTransport().get(mServer.getUrl("/forecast/daily"), NO_HEADERS);
+        byte[] decoded = readAll(response.getBody());
+        response.close();
+
+        assertTrue("Error: the transport should ask for gzip",
+                mServer.getRequests().get(0).headers.get("accept-encoding").contains("gzip"));
+        assertTrue("Error: the decoded body doesn't match what the server compressed",
+                Arrays.equals(mBody, decoded));
+        assertEquals(mGzippedBody.length, response.getWireBytes());
+        assertEquals(mBody.length, response.getDecodedBytes());
+        Log.d(LOG_TAG, "14 day forecast: " + response.getWireBytes() + " bytes on the wire, "
+                + response.getDecodedBytes() + " decoded");
+    }
+
+    public void testConnectionIsReused() throws Throwable {
+        HttpTransport transport = new HttpTransport();
+        for (int i = 0; i < 3; i++) {
+            ForecastTransport.Response response =
+                    transport.get(mServer.getUrl("/forecast/daily?i=" + i), NO_HEADERS);
+            readAll(response.getBody());
+            response.close();
+        }
+        assertEquals(3, mServer.getRequests().size());
+        assertEquals("Error: each request opened its own connection",
+                1, mServer.getConnectionCount());
+    }
+
+    public void testReadTimeout() throws Throwable {
+        mDelayMillis = 2000;
+        HttpTransport transport = new HttpTransport(1000, 250);
+        try {
+            ForecastTransport.Response response =
+                    transport.get(mServer.getUrl("/forecast/daily"), NO_HEADERS);
+            response.getCode();
+            fail("Error: the read timeout was not applied");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+    }
+}
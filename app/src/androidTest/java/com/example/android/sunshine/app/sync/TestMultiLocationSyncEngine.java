@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Syncs several locations at once against a stub server that takes its time answering, and
+    checks the worker pool, the per-host limit and the per-location status.
+ */
+public class TestMultiLocationSyncEngine extends AndroidTestCase {
+    public static final String LOG_TAG = TestMultiLocationSyncEngine.class.getSimpleName();
+
+    private static final String BAD_LOCATION = "nowhere";
+
+    private StubHttpServer mServer;
+    private byte[] mBody;
+    private byte[] mHourlyBody;
+    private volatile long mLatencyMillis;
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicInteger mMaxInFlight = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllWeather();
+        SyncStats.reset(mContext);
+        mBody = TestForecastJsonParser.buildForecastJson(14).getBytes("UTF-8");
+        // Starting now, so that none of it is old enough to be purged as soon as it's stored
+        mHourlyBody = TestHourlyForecastParser.buildHourlyJson(System.currentTimeMillis() / 1000,
+                MultiLocationSyncEngine.HOURLY_STEPS).getBytes("UTF-8");
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                int inFlight = mInFlight.incrementAndGet();
+                while (true) {
+                    int max = mMaxInFlight.get();
+                    if (inFlight <= max || mMaxInFlight.compareAndSet(max, inFlight)) {
+                        break;
+                    }
+                }
+                try {
+                    // Sleep here rather than with delayMillis so the request counts as in
+                    // flight while it waits
+                    Thread.sleep(mLatencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    mInFlight.decrementAndGet();
+                }
+
+                StubHttpServer.Response response = new StubHttpServer.Response();
+                if (request.path.contains("q=" + BAD_LOCATION)) {
+                    response.body = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}"
+                            .getBytes();
+                } else if (request.path.contains("forecast?")) {
+                    response.body = mHourlyBody;
+                } else {
+                    response.body = mBody;
+                }
+                return response;
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteAllWeather();
+        super.tearDown();
+    }
+
+    void deleteAllWeather() {
+        mContext.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private List<MultiLocationSyncEngine.SyncLocation> buildLocations(int count) {
+        List<MultiLocationSyncEngine.SyncLocation> locations =
+                new ArrayList<MultiLocationSyncEngine.SyncLocation>();
+        for (int i = 0; i < count; i++) {
+            String locationSetting = "test-" + i;
+            ForecastValidators.clear(mContext, locationSetting);
+            locations.add(new MultiLocationSyncEngine.SyncLocation(locationSetting));
+        }
+        return locations;
+    }
+
+    private MultiLocationSyncEngine buildEngine(int workers, int requestsPerHost) {
+        return new MultiLocationSyncEngine(mContext, new HttpTransport(),
+                mServer.getUrl("/data/2.5/forecast/daily?"), workers, requestsPerHost);
+    }
+
+    private MultiLocationSyncEngine buildEngine(int workers, int requestsPerHost,
+                                                String hourlyLocationSetting) {
+        MultiLocationSyncEngine engine = buildEngine(workers, requestsPerHost);
+        engine.setHourlyForecast(mServer.getUrl("/data/2.5/forecast?"), hourlyLocationSetting);
+        return engine;
+    }
+
+    private int countWeatherRows(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testSyncsEveryLocation() {
+        mLatencyMillis = 50;
+        List<MultiLocationSyncEngine.SyncLocation> locations = buildLocations(6);
+        List<MultiLocationSyncEngine.Result> results = buildEngine(4, 2).syncAll(locations);
+
+        assertEquals(locations.size(), results.size());
+        for (int i = 0; i < locations.size(); i++) {
+            String locationSetting = locations.get(i).locationSetting;
+            assertEquals("Error: results came back out of order",
+                    locationSetting, results.get(i).locationSetting);
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, results.get(i).status);
+            assertTrue(results.get(i).stored);
+            assertEquals(14, countWeatherRows(locationSetting));
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                    MultiLocationSyncEngine.getLocationStatus(mContext, locationSetting));
+        }
+        assertEquals(locations.size(), SyncStats.get(mContext, SyncStats.SYNCS));
+        assertTrue("Error: more requests were in flight to one host than allowed",
+                mMaxInFlight.get() <= 2);
+    }
+
+    public void testStatusIsPerLocation() {
+        mLatencyMillis = 0;
+        List<MultiLocationSyncEngine.SyncLocation> locations = buildLocations(2);
+        ForecastValidators.clear(mContext, BAD_LOCATION);
+        locations.add(new MultiLocationSyncEngine.SyncLocation(BAD_LOCATION));
+
+        buildEngine(MultiLocationSyncEngine.DEFAULT_WORKERS,
+                MultiLocationSyncEngine.DEFAULT_REQUESTS_PER_HOST).syncAll(locations);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                MultiLocationSyncEngine.getLocationStatus(mContext, "test-0"));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                MultiLocationSyncEngine.getLocationStatus(mContext, "test-1"));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                MultiLocationSyncEngine.getLocationStatus(mContext, BAD_LOCATION));
+        assertEquals(0, countWeatherRows(BAD_LOCATION));
+    }
+
+    /*
+        A location cancelled before it got anywhere keeps the status its last sync left.
+     */
+    public void testCancelledLocationKeepsStatus() {
+        mLatencyMillis = 0;
+        List<MultiLocationSyncEngine.SyncLocation> locations = buildLocations(1);
+        ForecastValidators.clear(mContext, BAD_LOCATION);
+        locations.add(new MultiLocationSyncEngine.SyncLocation(BAD_LOCATION));
+        MultiLocationSyncEngine engine = buildEngine(MultiLocationSyncEngine.DEFAULT_WORKERS,
+                MultiLocationSyncEngine.DEFAULT_REQUESTS_PER_HOST);
+        engine.syncAll(locations);
+
+        for (MultiLocationSyncEngine.SyncLocation location : locations) {
+            int status = MultiLocationSyncEngine.getLocationStatus(mContext,
+                    location.locationSetting);
+            MultiLocationSyncEngine.Result result;
+            // Interrupted, the worker gives up waiting for the host before it sends anything
+            Thread.currentThread().interrupt();
+            try {
+                result = engine.syncLocation(location);
+            } finally {
+                Thread.interrupted();
+            }
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, result.status);
+            assertEquals("Error: cancelling " + location.locationSetting + " lost its status",
+                    status, MultiLocationSyncEngine.getLocationStatus(mContext,
+                            location.locationSetting));
+        }
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                MultiLocationSyncEngine.getLocationStatus(mContext, "test-0"));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                MultiLocationSyncEngine.getLocationStatus(mContext, BAD_LOCATION));
+    }
+
+    public void testHourlyForecast() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        mLatencyMillis = 100;
+        List<MultiLocationSyncEngine.SyncLocation> locations = buildLocations(1);
+        String locationSetting = locations.get(0).locationSetting;
+
+        long start = SystemClock.elapsedRealtime();
+        List<MultiLocationSyncEngine.Result> results = buildEngine(
+                MultiLocationSyncEngine.DEFAULT_WORKERS,
+                MultiLocationSyncEngine.DEFAULT_REQUESTS_PER_HOST, locationSetting)
+                .syncAll(locations);
+        long hourlyMillis = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(14, countWeatherRows(locationSetting));
+        assertEquals(MultiLocationSyncEngine.HOURLY_STEPS, results.get(0).hourlyRows);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocation(locationSetting),
+                null, null, null, null);
+        assertEquals(MultiLocationSyncEngine.HOURLY_STEPS, cursor.getCount());
+        cursor.close();
+        assertTrue("Error: the hourly forecast was fetched after the daily one, not alongside it",
+                mMaxInFlight.get() >= 2);
+
+        long dailyMillis = timeSync(locations, MultiLocationSyncEngine.DEFAULT_WORKERS,
+                MultiLocationSyncEngine.DEFAULT_REQUESTS_PER_HOST);
+        Log.d(LOG_TAG, "One location with " + mLatencyMillis + "ms latency: daily only "
+                + dailyMillis + "ms, daily and hourly " + hourlyMillis + "ms");
+    }
+
+    private long timeSync(List<MultiLocationSyncEngine.SyncLocation> locations, int workers,
+                          int requestsPerHost) {
+        deleteAllWeather();
+        for (MultiLocationSyncEngine.SyncLocation location : locations) {
+            ForecastValidators.clear(mContext, location.locationSetting);
+        }
+        long start = SystemClock.elapsedRealtime();
+        buildEngine(workers, requestsPerHost).syncAll(locations);
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    public void testSyncWallTime() {
+        mLatencyMillis = 100;
+        int[] locationCounts = {1, 10, 50};
+        for (int locationCount : locationCounts) {
+            List<MultiLocationSyncEngine.SyncLocation> locations = buildLocations(locationCount);
+
+            long sequentialMillis = timeSync(locations, 1, 1);
+            long parallelMillis = timeSync(locations, MultiLocationSyncEngine.DEFAULT_WORKERS,
+                    MultiLocationSyncEngine.DEFAULT_REQUESTS_PER_HOST);
+
+            Log.d(LOG_TAG, locationCount + " locations with " + mLatencyMillis
+                    + "ms latency: one at a time " + sequentialMillis + "ms, "
+                    + MultiLocationSyncEngine.DEFAULT_WORKERS + " workers " + parallelMillis
+                    + "ms");
+            if (locationCount >= 10) {
+                assertTrue("Error: syncing " + locationCount + " locations in parallel was no "
+                        + "faster than one at a time", parallelMillis < sequentialMillis);
+            }
+        }
+    }
+}
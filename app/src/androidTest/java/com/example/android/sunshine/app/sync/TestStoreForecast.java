@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.MoreAsserts;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.ByteArrayInputStream;
+
+/*
+    Compares writing a forecast the old way, as separate location lookup, location insert and
+    incremental bulk insert calls, with the single batch the sync engine now applies.
+ */
+public class TestStoreForecast extends AndroidTestCase {
+    public static final String LOG_TAG = TestStoreForecast.class.getSimpleName();
+
+    private static final String LOCATION_SETTING = "99705";
+    private static final int JULIAN_START_DAY = 2457012;  // December 20th, 2014
+
+    private long mPurgeBefore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllWeather();
+        mPurgeBefore = new Time().setJulianDay(JULIAN_START_DAY - 1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllWeather();
+        super.tearDown();
+    }
+
+    private void deleteAllWeather() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private ForecastJsonParser.Forecast buildForecast(int version) throws Exception {
+        byte[] json = TestForecastJsonParser.buildForecastJson(14).getBytes("UTF-8");
+        ForecastJsonParser.Forecast forecast = ForecastJsonParser.parseBuffered(
+                new ByteArrayInputStream(json), JULIAN_START_DAY);
+        // Every version changes every day, so each write is a full one
+        for (ContentValues row : forecast.rows) {
+            row.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20 + version);
+        }
+        return forecast;
+    }
+
+    /*
+        How the sync adapter stored a forecast before it used applyBatch: up to four provider
+        calls, each in its own transaction.
+     */
+    private int legacyStore(ForecastJsonParser.Forecast forecast) {
+        long locationId;
+        Cursor locationCursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{LOCATION_SETTING},
+                null);
+        if (locationCursor.moveToFirst()) {
+            locationId = locationCursor.getLong(0);
+        } else {
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, forecast.cityName);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, LOCATION_SETTING);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, forecast.cityLatitude);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, forecast.cityLongitude);
+            Uri insertedUri = mContext.getContentResolver().insert(
+                    WeatherContract.LocationEntry.CONTENT_URI, locationValues);
+            locationId = ContentUris.parseId(insertedUri);
+        }
+        locationCursor.close();
+
+        return mContext.getContentResolver().bulkInsert(
+                WeatherContract.WeatherEntry.buildWeatherIncrementalUri(mPurgeBefore),
+                forecast.toArray(locationId));
+    }
+
+    private int batchStore(ForecastJsonParser.Forecast forecast) throws Exception {
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY,
+                MultiLocationSyncEngine.buildStoreOperations(LOCATION_SETTING, forecast, mPurgeBefore));
+        int changedRows = 0;
+        for (int i = 1; i < results.length; i++) {
+            changedRows += results[i].count;
+        }
+        return changedRows;
+    }
+
+    /*
+        The stored forecast as one string per day.  Ids are left out, since they differ between
+        two runs from an empty table.
+     */
+    private String[] readStoredWeather() {
+        final String[] columns = {
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherContract.WeatherEntry.COLUMN_DEGREES
+        };
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_SETTING), columns, null,
+                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        String[] rows = new String[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            StringBuilder row = new StringBuilder();
+            for (int column = 0; column < columns.length; column++) {
+                row.append(columns[column]).append('=').append(cursor.getString(column)).append(' ');
+            }
+            rows[i] = row.toString();
+        }
+        cursor.close();
+        return rows;
+    }
+
+    public void testBatchMatchesLegacyWrites() throws Exception {
+        assertEquals(14, legacyStore(buildForecast(0)));
+        String[] expected = readStoredWeather();
+        deleteAllWeather();
+
+        assertEquals(14, batchStore(buildForecast(0)));
+        assertEquals("Error: an unchanged forecast was written", 0, batchStore(buildForecast(0)));
+        MoreAsserts.assertEquals(expected, readStoredWeather());
+    }
+
+    public void testSyncWriteTime() throws Exception {
+        final int syncs = 50;
+        ForecastJsonParser.Forecast[] forecasts = new ForecastJsonParser.Forecast[syncs];
+        for (int i = 0; i < syncs; i++) {
+            forecasts[i] = buildForecast(i);
+        }
+
+        // warm up both paths so statement caches and class loading aren't measured
+        legacyStore(forecasts[0]);
+        batchStore(forecasts[1]);
+        deleteAllWeather();
+
+        long start = SystemClock.elapsedRealtime();
+        for (ForecastJsonParser.Forecast forecast : forecasts) {
+            assertEquals(14, legacyStore(forecast));
+        }
+        long legacyMillis = SystemClock.elapsedRealtime() - start;
+        deleteAllWeather();
+
+        start = SystemClock.elapsedRealtime();
+        for (ForecastJsonParser.Forecast forecast : forecasts) {
+            assertEquals(14, batchStore(forecast));
+        }
+        long batchMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.d(LOG_TAG, syncs + " full forecast writes: separate calls " + legacyMillis
+                + " ms, one batch " + batchMillis + " ms");
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/*
+    Runs whole syncs through SunshineSyncAdapter with a fake transport in place of the network,
+    and checks what ends up in the provider and the sync counters.
+ */
+public class TestSunshineSyncAdapter extends AndroidTestCase {
+    static final String TEST_LOCATION = "99705";
+
+    private SharedPreferences mPrefs;
+    private String mSavedLocation;
+    private boolean mSavedNotifications;
+    private float mSavedLat;
+    private float mSavedLon;
+    private boolean mHadLatLon;
+
+    FakeForecastTransport mTransport;
+    SunshineSyncAdapter mAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        String notificationsKey = mContext.getString(R.string.pref_enable_notifications_key);
+        String latKey = mContext.getString(R.string.pref_location_latitude);
+        String lonKey = mContext.getString(R.string.pref_location_longitude);
+        mSavedLocation = mPrefs.getString(locationKey, null);
+        mSavedNotifications = mPrefs.getBoolean(notificationsKey, true);
+        mHadLatLon = mPrefs.contains(latKey) && mPrefs.contains(lonKey);
+        mSavedLat = mPrefs.getFloat(latKey, 0);
+        mSavedLon = mPrefs.getFloat(lonKey, 0);
+
+        // Keep the test from posting a notification
+        mPrefs.edit().putString(locationKey, TEST_LOCATION)
+                .putBoolean(notificationsKey, false)
+                .remove(latKey)
+                .remove(lonKey)
+                .commit();
+        // The commit's listeners run on the main thread; the sync below reads it from this one
+        SettingsSnapshot.refresh(mContext);
+
+        deleteAllWeather();
+        ForecastValidators.clear(mContext, TEST_LOCATION);
+        SyncStats.reset(mContext);
+        // A backoff left over from real use would skip the syncs under test
+        SyncScheduler.getInstance(mContext).reset();
+
+        mTransport = new FakeForecastTransport(
+                TestForecastJsonParser.buildForecastJson(14).getBytes("UTF-8"));
+        SunshineSyncAdapter.setTransport(mTransport);
+        mAdapter = new SunshineSyncAdapter(mContext, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.setTransport(null);
+        SharedPreferences.Editor editor = mPrefs.edit();
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        if (null == mSavedLocation) {
+            editor.remove(locationKey);
+        } else {
+            editor.putString(locationKey, mSavedLocation);
+        }
+        editor.putBoolean(mContext.getString(R.string.pref_enable_notifications_key),
+                mSavedNotifications);
+        if (mHadLatLon) {
+            editor.putFloat(mContext.getString(R.string.pref_location_latitude), mSavedLat)
+                    .putFloat(mContext.getString(R.string.pref_location_longitude), mSavedLon);
+        }
+        editor.commit();
+        SettingsSnapshot.refresh(mContext);
+        deleteAllWeather();
+        super.tearDown();
+    }
+
+    void deleteAllWeather() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    void sync() {
+        mAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null,
+                new SyncResult());
+    }
+
+    int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(TEST_LOCATION),
+                null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testSyncStoresForecast() {
+        sync();
+        assertEquals(14, countWeatherRows());
+        assertEquals(1, SyncStats.get(mContext, SyncStats.SYNCS));
+        assertEquals(0, SyncStats.getShortCircuitedSyncs(mContext));
+        assertEquals("Error: the first sync should not be conditional",
+                null, mTransport.requests.get(0).get("If-None-Match"));
+        assertTrue(SyncStats.get(mContext, SyncStats.DECODED_BYTES) > 0);
+    }
+
+    public void testNotModifiedShortCircuits() {
+        sync();
+        sync();
+        assertEquals(mTransport.etag, mTransport.requests.get(1).get("If-None-Match"));
+        assertEquals(2, SyncStats.get(mContext, SyncStats.SYNCS));
+        assertEquals(1, SyncStats.get(mContext, SyncStats.SYNCS_NOT_MODIFIED));
+        assertEquals(14, countWeatherRows());
+    }
+
+    public void testUnchangedBodyShortCircuits() {
+        mTransport.honorValidators = false;
+        sync();
+        sync();
+        assertEquals(1, SyncStats.get(mContext, SyncStats.SYNCS_UNCHANGED_BODY));
+        assertEquals(14, countWeatherRows());
+    }
+
+    public void testWipedCacheRefetches() {
+        sync();
+        deleteAllWeather();
+        sync();
+        assertEquals("Error: validators were sent with nothing in the database",
+                null, mTransport.requests.get(1).get("If-None-Match"));
+        assertEquals(14, countWeatherRows());
+    }
+}
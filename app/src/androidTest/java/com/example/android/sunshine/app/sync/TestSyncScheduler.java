@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+/*
+    Exercises SyncScheduler on a fake clock.  The day-long simulation plays the part of the sync
+    framework: it runs periodic syncs on the interval the scheduler last asked for, retries
+    failures once their backoff is up, and runs a requested immediate sync on the next minute.
+ */
+public class TestSyncScheduler extends AndroidTestCase {
+    public static final String LOG_TAG = TestSyncScheduler.class.getSimpleName();
+
+    private static final long MINUTE = 60 * 1000L;
+    private static final long HOUR = 60 * MINUTE;
+    // Midnight, December 20th 2014 UTC; any fixed start will do
+    private static final long START = 1419033600000L;
+
+    static class FakeClock implements SyncScheduler.Clock {
+        long now = START;
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private FakeClock mClock;
+    private SyncScheduler mScheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClock = new FakeClock();
+        mScheduler = new SyncScheduler(mClock, new Random(42));
+    }
+
+    public void testBackoffGrowsWithJitterAndCaps() {
+        long expected = SyncScheduler.INITIAL_BACKOFF_MILLIS;
+        for (int failures = 1; failures <= 10; failures++) {
+            long backoff = mScheduler.getBackoffMillis(failures);
+            assertTrue("Error: backoff after " + failures + " failures was " + backoff,
+                    backoff >= expected / 2 && backoff <= expected);
+            expected = Math.min(expected * 2, SyncScheduler.MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    public void testFailureHoldsOffPeriodicSyncs() {
+        mScheduler.onSyncFinished(SyncScheduler.OUTCOME_FAILED);
+        long backoffUntil = mScheduler.getBackoffUntil();
+        assertTrue(backoffUntil > mClock.now);
+
+        mClock.now = backoffUntil - 1;
+        assertFalse(mScheduler.onSyncStarted(false));
+        assertTrue("Error: a user-initiated sync should not wait out the backoff",
+                mScheduler.onSyncStarted(true));
+
+        mClock.now = backoffUntil;
+        assertTrue(mScheduler.onSyncStarted(false));
+        mScheduler.onSyncFinished(SyncScheduler.OUTCOME_CHANGED);
+        assertEquals(0, mScheduler.getConsecutiveFailures());
+        assertEquals(0, mScheduler.getBackoffUntil());
+    }
+
+    public void testImmediateRequestsCoalesce() {
+        assertTrue(mScheduler.requestImmediateSync());
+        assertFalse(mScheduler.requestImmediateSync());
+        assertFalse(mScheduler.requestImmediateSync());
+
+        // Once the pending sync starts, the next request needs its own
+        mScheduler.onSyncStarted(true);
+        assertTrue(mScheduler.requestImmediateSync());
+
+        // A request the framework never ran doesn't block others forever
+        mClock.now += SyncScheduler.PENDING_IMMEDIATE_TIMEOUT_MILLIS;
+        assertTrue(mScheduler.requestImmediateSync());
+    }
+
+    public void testIntervalStretchesWhileStable() {
+        assertEquals(SyncScheduler.BASE_INTERVAL_MILLIS, mScheduler.getSyncIntervalMillis());
+        for (int i = 0; i < 20; i++) {
+            mScheduler.onSyncFinished(SyncScheduler.OUTCOME_UNCHANGED);
+        }
+        assertEquals(SyncScheduler.MAX_INTERVAL_MILLIS, mScheduler.getSyncIntervalMillis());
+
+        mScheduler.onSyncFinished(SyncScheduler.OUTCOME_CHANGED);
+        assertEquals(SyncScheduler.BASE_INTERVAL_MILLIS, mScheduler.getSyncIntervalMillis());
+    }
+
+    // The server is down from 06:00 to 09:00
+    private static boolean isServerDown(long time) {
+        long hour = (time - START) / HOUR;
+        return hour >= 6 && hour < 9;
+    }
+
+    // The forecast itself is revised at midnight and noon
+    private static long getForecastVersion(long time) {
+        return (time - START) / (12 * HOUR);
+    }
+
+    // Settings changes: a location change through the Place Picker asks twice in a row, and a
+    // user fiddling with the location asks every minute or so for a while
+    private static int getImmediateRequests(long time) {
+        long minute = (time - START) / MINUTE;
+        if (minute == 7 * 60) return 2;                             // 07:00, server down
+        if (minute == 13 * 60) return 2;                            // 13:00
+        if (minute >= 20 * 60 && minute < 20 * 60 + 10) return 3;   // 20:00 - 20:10
+        return 0;
+    }
+
+    public void testDayOfSyncs() {
+        int networkCalls = 0;
+        int failedCalls = 0;
+        int requests = 0;
+        int issuedRequests = 0;
+        long lastFetchedVersion = -1;
+
+        long configuredInterval = mScheduler.getSyncIntervalMillis();
+        long nextPeriodic = START;
+        long retryAt = 0;
+        boolean immediatePending = false;
+
+        for (long t = START; t < START + 24 * HOUR; t += MINUTE) {
+            mClock.now = t;
+
+            // The framework picks up a pending manual sync on the tick after it was asked for
+            boolean runManual = immediatePending;
+            immediatePending = false;
+            boolean runPeriodic = t >= nextPeriodic || (retryAt != 0 && t >= retryAt);
+            if (t >= nextPeriodic) {
+                nextPeriodic += configuredInterval;
+            }
+
+            if (runManual || runPeriodic) {
+                retryAt = 0;
+                if (mScheduler.onSyncStarted(runManual)) {
+                    networkCalls++;
+                    int outcome;
+                    if (isServerDown(t)) {
+                        failedCalls++;
+                        outcome = SyncScheduler.OUTCOME_FAILED;
+                    } else if (getForecastVersion(t) != lastFetchedVersion) {
+                        lastFetchedVersion = getForecastVersion(t);
+                        outcome = SyncScheduler.OUTCOME_CHANGED;
+                    } else {
+                        outcome = SyncScheduler.OUTCOME_UNCHANGED;
+                    }
+                    mScheduler.onSyncFinished(outcome);
+                    if (outcome == SyncScheduler.OUTCOME_FAILED) {
+                        retryAt = mScheduler.getBackoffUntil();
+                    }
+
+                    // Re-adding the periodic sync restarts its timer
+                    long interval = mScheduler.getSyncIntervalMillis();
+                    if (interval != configuredInterval) {
+                        configuredInterval = interval;
+                        nextPeriodic = t + interval;
+                    }
+                } else {
+                    // Skipped; delayUntil has the framework come back when the backoff is up
+                    retryAt = mScheduler.getBackoffUntil();
+                }
+            }
+
+            int newRequests = getImmediateRequests(t);
+            for (int i = 0; i < newRequests; i++) {
+                requests++;
+                if (mScheduler.requestImmediateSync()) {
+                    issuedRequests++;
+                    immediatePending = true;
+                }
+            }
+        }
+
+        // What the fixed schedule did: a sync every three hours, plus one per request
+        int fixedScheduleCalls = (int) (24 * HOUR / SyncScheduler.BASE_INTERVAL_MILLIS) + requests;
+        Log.d(LOG_TAG, "Simulated day: " + networkCalls + " network calls (" + failedCalls
+                + " failed), " + issuedRequests + " of " + requests
+                + " immediate requests issued; a fixed schedule makes " + fixedScheduleCalls);
+
+        assertEquals(34, requests);
+        assertEquals(12, issuedRequests);
+        assertEquals(22, networkCalls);
+        assertEquals(6, failedCalls);
+        assertTrue(networkCalls < fixedScheduleCalls);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tiny HTTP/1.1 server on the loopback interface for exercising the sync code without the
+ * real OpenWeatherMap.  Each request is handed to a {@link Handler}, and every request's headers
+ * are kept so tests can check what the client sent.  Connections are kept alive between
+ * requests, like a real server would.
+ */
+public class StubHttpServer {
+
+    public static class Request {
+        public String method;
+        public String path;
+        // header names are lower-cased
+        public final Map<String, String> headers = new HashMap<String, String>();
+        public int connectionId;
+    }
+
+    public static class Response {
+        public int status = 200;
+        public String reason = "OK";
+        public final Map<String, String> headers = new LinkedHashMap<String, String>();
+        public byte[] body = new byte[0];
+        // Simulated server think time, in milliseconds
+        public long delayMillis;
+
+        public Response() {
+        }
+
+        public Response(int status, String reason) {
+            this.status = status;
+            this.reason = reason;
+        }
+    }
+
+    public interface Handler {
+        Response handle(Request request) throws IOException;
+    }
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final Handler mHandler;
+    private volatile boolean mRunning = true;
+
+    public StubHttpServer(Handler handler) throws IOException {
+        mHandler = handler;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        });
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    public List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<Request>(mRequests);
+        }
+    }
+
+    /**
+     * @return how many TCP connections the clients have opened so far.
+     */
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public void shutdown() {
+        mRunning = false;
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // we're done with it anyway
+        }
+        mExecutor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (mRunning) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                final int connectionId = mConnectionCount.incrementAndGet();
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket, connectionId);
+                    }
+                });
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket, int connectionId) {
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+            OutputStream out = socket.getOutputStream();
+            while (mRunning) {
+                String requestLine = in.readLine();
+                if (null == requestLine || requestLine.length() == 0) {
+                    break;
+                }
+
+                Request request = new Request();
+                request.connectionId = connectionId;
+                String[] parts = requestLine.split(" ");
+                request.method = parts[0];
+                request.path = parts.length > 1 ? parts[1] : "/";
+                String line;
+                while ((line = in.readLine()) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        request.headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                                line.substring(colon + 1).trim());
+                    }
+                }
+                mRequests.add(request);
+
+                Response response = mHandler.handle(request);
+                if (response.delayMillis > 0) {
+                    Thread.sleep(response.delayMillis);
+                }
+                writeResponse(out, response);
+                if ("close".equalsIgnoreCase(request.headers.get("connection"))) {
+                    break;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // client went away or we're shutting down
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing more to do
+            }
+        }
+    }
+
+    private static void writeResponse(OutputStream out, Response response) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.status).append(' ').append(response.reason)
+                .append("\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        // 304s and friends must not carry a body
+        boolean hasBody = response.status != 304 && response.status != 204;
+        head.append("Content-Length: ").append(hasBody ? response.body.length : 0).append("\r\n");
+        head.append("\r\n");
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        if (hasBody) {
+            out.write(response.body);
+        }
+        out.flush();
+    }
+}
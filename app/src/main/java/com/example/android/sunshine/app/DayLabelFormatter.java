@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.Time;
+import android.util.SparseArray;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats the day labels on the forecast list, widget and detail screen.  A label depends only
+ * on the day, on which day is today and on the locale, so each one is built once and kept until
+ * one of those changes: at midnight, when the time zone or clock is changed, or when the locale
+ * is.  Binding a row whose label is already known allocates nothing; the day is worked out
+ * arithmetically and the label comes out of a SparseArray.
+ * <p/>
+ * Whatever keeps labels of its own, like the rows a {@link ForecastLoader} has prepared, can
+ * register an {@link OnLabelsChangedListener} to hear when they've gone stale.
+ * <p/>
+ * The labels are the ones {@link Utility} has always produced, and like those they place every
+ * date with today's offset from UTC.
+ */
+public class DayLabelFormatter {
+
+    /**
+     * Told, on the main thread, that labels built before now may no longer be right.
+     */
+    public interface OnLabelsChangedListener {
+        void onLabelsChanged();
+    }
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    // Enough for the list, the widget and the detail screen several times over
+    static final int MAX_LABELS = 2048;
+
+    private static final int LABEL_FRIENDLY = 0;
+    private static final int LABEL_FRIENDLY_LONG_TODAY = 1;
+    private static final int LABEL_FULL_FRIENDLY = 2;
+    private static final int LABEL_DAY_NAME = 3;
+    private static final int LABEL_MONTH_DAY = 4;
+    private static final int LABEL_KINDS = 5;
+
+    private static final Object sLock = new Object();
+    private static DayLabelFormatter sInstance;
+
+    private final Context mContext;
+    private final SparseArray<String> mLabels = new SparseArray<String>();
+    private final ArrayList<OnLabelsChangedListener> mListeners =
+            new ArrayList<OnLabelsChangedListener>();
+
+    // What the cached labels were built for
+    private Locale mLocale;
+    private int mGmtOffSeconds;
+    private int mTodayJulianDay;
+    // 0 forces a reset on the next call
+    private long mNextMidnightMillis;
+
+    private SimpleDateFormat mDayNameFormat;
+    private SimpleDateFormat mShortDateFormat;
+    private SimpleDateFormat mMonthDayFormat;
+
+    DayLabelFormatter(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * @return the app's formatter.  The first call starts listening for the date, clock, time
+     * zone and locale changing.
+     */
+    public static DayLabelFormatter getInstance(Context context) {
+        synchronized (sLock) {
+            if (null == sInstance) {
+                Context appContext = context.getApplicationContext();
+                sInstance = new DayLabelFormatter(appContext);
+                IntentFilter filter = new IntentFilter();
+                // The date changes at midnight
+                filter.addAction(Intent.ACTION_DATE_CHANGED);
+                filter.addAction(Intent.ACTION_TIME_CHANGED);
+                filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+                filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+                appContext.registerReceiver(new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        sInstance.labelsChanged();
+                    }
+                }, filter);
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Forgets every label, and which day is today.
+     */
+    public synchronized void invalidate() {
+        mNextMidnightMillis = 0;
+    }
+
+    /**
+     * Registers a listener, unless it already is.
+     */
+    public void addOnLabelsChangedListener(OnLabelsChangedListener listener) {
+        synchronized (mListeners) {
+            if (!mListeners.contains(listener)) {
+                mListeners.add(listener);
+            }
+        }
+    }
+
+    public void removeOnLabelsChangedListener(OnLabelsChangedListener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Forgets every label and tells the listeners theirs are stale.  Called on the main thread.
+     */
+    void labelsChanged() {
+        invalidate();
+        OnLabelsChangedListener[] listeners;
+        synchronized (mListeners) {
+            listeners = mListeners.toArray(new OnLabelsChangedListener[mListeners.size()]);
+        }
+        // Outside the lock, so a listener can unregister itself
+        for (OnLabelsChangedListener listener : listeners) {
+            listener.onLabelsChanged();
+        }
+    }
+
+    /**
+     * @see Utility#getFriendlyDayString
+     */
+    public synchronized String getFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        int julianDay = getJulianDay(dateInMillis);
+        if (displayLongToday && julianDay == mTodayJulianDay) {
+            return getLabel(LABEL_FRIENDLY_LONG_TODAY, julianDay, dateInMillis);
+        }
+        return getLabel(LABEL_FRIENDLY, julianDay, dateInMillis);
+    }
+
+    /**
+     * @see Utility#getFullFriendlyDayString
+     */
+    public synchronized String getFullFriendlyDayString(long dateInMillis) {
+        return getLabel(LABEL_FULL_FRIENDLY, getJulianDay(dateInMillis), dateInMillis);
+    }
+
+    /**
+     * @see Utility#getDayName
+     */
+    public synchronized String getDayName(long dateInMillis) {
+        return getLabel(LABEL_DAY_NAME, getJulianDay(dateInMillis), dateInMillis);
+    }
+
+    /**
+     * @see Utility#getFormattedMonthDay
+     */
+    public synchronized String getFormattedMonthDay(long dateInMillis) {
+        return getLabel(LABEL_MONTH_DAY, getJulianDay(dateInMillis), dateInMillis);
+    }
+
+    /**
+     * @return the local julian day of the given time, once the cached labels are known to be
+     * for the current day and locale.
+     */
+    private int getJulianDay(long dateInMillis) {
+        long now = System.currentTimeMillis();
+        if (now >= mNextMidnightMillis || Locale.getDefault() != mLocale) {
+            reset(now);
+        }
+        return Time.getJulianDay(dateInMillis, mGmtOffSeconds);
+    }
+
+    private void reset(long now) {
+        mLabels.clear();
+        mLocale = Locale.getDefault();
+        TimeZone timeZone = TimeZone.getDefault();
+        mGmtOffSeconds = timeZone.getOffset(now) / 1000;
+        mTodayJulianDay = Time.getJulianDay(now, mGmtOffSeconds);
+        mNextMidnightMillis = (mTodayJulianDay + 1 - Time.EPOCH_JULIAN_DAY) * DAY_IN_MILLIS
+                - mGmtOffSeconds * 1000L;
+
+        mDayNameFormat = new SimpleDateFormat("EEEE", mLocale);
+        mShortDateFormat = new SimpleDateFormat("EEE MMM dd", mLocale);
+        mMonthDayFormat = new SimpleDateFormat("MMMM dd", mLocale);
+        mDayNameFormat.setTimeZone(timeZone);
+        mShortDateFormat.setTimeZone(timeZone);
+        mMonthDayFormat.setTimeZone(timeZone);
+    }
+
+    private String getLabel(int kind, int julianDay, long dateInMillis) {
+        int key = julianDay * LABEL_KINDS + kind;
+        String label = mLabels.get(key);
+        if (null == label) {
+            label = buildLabel(kind, julianDay, dateInMillis);
+            if (mLabels.size() >= MAX_LABELS) {
+                mLabels.clear();
+            }
+            mLabels.put(key, label);
+        }
+        return label;
+    }
+
+    private String buildLabel(int kind, int julianDay, long dateInMillis) {
+        switch (kind) {
+            case LABEL_FRIENDLY_LONG_TODAY:
+                // "Today, June 24"
+                return mContext.getString(R.string.format_full_friendly_date,
+                        mContext.getString(R.string.today),
+                        getLabel(LABEL_MONTH_DAY, julianDay, dateInMillis));
+            case LABEL_FRIENDLY:
+                // Within the week, just the day name; after that, "Mon Jun 3"
+                if (julianDay < mTodayJulianDay + 7) {
+                    return getLabel(LABEL_DAY_NAME, julianDay, dateInMillis);
+                }
+                return mShortDateFormat.format(dateInMillis);
+            case LABEL_FULL_FRIENDLY:
+                return mContext.getString(R.string.format_full_friendly_date,
+                        getLabel(LABEL_DAY_NAME, julianDay, dateInMillis),
+                        getLabel(LABEL_MONTH_DAY, julianDay, dateInMillis));
+            case LABEL_DAY_NAME:
+                // "Today", "Tomorrow", then the day of the week, e.g. "Wednesday"
+                if (julianDay == mTodayJulianDay) {
+                    return mContext.getString(R.string.today);
+                } else if (julianDay == mTodayJulianDay + 1) {
+                    return mContext.getString(R.string.tomorrow);
+                }
+                return mDayNameFormat.format(dateInMillis);
+            case LABEL_MONTH_DAY:
+                return mMonthDayFormat.format(dateInMillis);
+            default:
+                throw new IllegalArgumentException("Unknown label kind: " + kind);
+        }
+    }
+}
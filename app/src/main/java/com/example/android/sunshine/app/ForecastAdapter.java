@@ -30,7 +30,9 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
@@ -45,11 +47,38 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
+    // One per row of mCursor
+    private ForecastRow[] mRows;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
 
+    // How many art loads started by a bind have finished, and how many of those found the art
+    // already in memory, whether the preloader put it there or an earlier bind did
+    private int mArtBinds;
+    private int mWarmArtBinds;
+    final private RequestListener<String, GlideDrawable> mArtListener =
+            new RequestListener<String, GlideDrawable>() {
+                @Override
+                public boolean onException(Exception e, String model, Target<GlideDrawable> target,
+                                           boolean isFirstResource) {
+                    return false;
+                }
+
+                @Override
+                public boolean onResourceReady(GlideDrawable resource, String model,
+                                               Target<GlideDrawable> target,
+                                               boolean isFromMemoryCache,
+                                               boolean isFirstResource) {
+                    mArtBinds++;
+                    if (isFromMemoryCache) {
+                        mWarmArtBinds++;
+                    }
+                    return false;
+                }
+            };
+
     /**
      * Cache of the children views for a forecast list item.
      */
@@ -73,9 +102,11 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            if (adapterPosition == RecyclerView.NO_POSITION) {
+                // A removed row can still be tapped while it animates away
+                return;
+            }
+            mClickHandler.onClick(mRows[adapterPosition].date, this);
             mICM.onClick(this);
         }
     }
@@ -88,6 +119,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mContext = context;
         mClickHandler = dh;
         mEmptyView = emptyView;
+        // Rows are known by their date, so a selection can follow its row as others come and go
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
     }
@@ -124,63 +157,40 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
-        int defaultImage;
-        boolean useLongToday;
-
-        switch (getItemViewType(position)) {
-            case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
-                break;
-            default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
-        }
+        // Everything here was formatted by the loader, off the main thread
+        ForecastRow row = mRows[position];
+        boolean today = usesTodayLayout(position);
+        int defaultImage = today ? row.artResourceId : row.iconResourceId;
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        if ( null == row.artUrl ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(row.artUrl)
                     .error(defaultImage)
                     .crossFade()
+                    .listener(mArtListener)
                     .into(forecastAdapterViewHolder.mIconView);
         }
 
         // this enables better animations. even if we lose state due to a device rotation,
         // the animator can use this to re-find the original view
-        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
-
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
+        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, row.transitionName);
 
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        forecastAdapterViewHolder.mDateView.setText(today ? row.longDateText : row.dateText);
 
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(row.description);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(row.descriptionContentDescription);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(row.highText);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(row.highContentDescription);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(row.lowText);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(row.lowContentDescription);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
@@ -201,20 +211,83 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         return mICM.getSelectedItemPosition();
     }
 
+    public int getArtBindCount() {
+        return mArtBinds;
+    }
+
+    public int getWarmArtBindCount() {
+        return mWarmArtBinds;
+    }
+
+    boolean usesTodayLayout(int position) {
+        return VIEW_TYPE_TODAY == getItemViewType(position);
+    }
+
+    /**
+     * @return the remote art for the row, or null if the built-in graphics are in use.
+     */
+    String getArtUrl(int position) {
+        return mRows[position].artUrl;
+    }
+
     @Override
     public int getItemViewType(int position) {
         return (position == 0 && mUseTodayLayout) ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
     }
 
+    /**
+     * @return the position of the row for the given date, or RecyclerView.NO_POSITION if there
+     * isn't one.  The rows are sorted by date, so this is a binary search.
+     */
+    public int getPositionForDate(long date) {
+        if (null == mRows) {
+            return RecyclerView.NO_POSITION;
+        }
+        int low = 0;
+        int high = mRows.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midDate = mRows[mid].date;
+            if (midDate < date) {
+                low = mid + 1;
+            } else if (midDate > date) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mRows[position].date;
+    }
+
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        if ( null == mRows ) return 0;
+        return mRows.length;
     }
 
     public void swapCursor(Cursor newCursor) {
+        ForecastRow[] oldRows = mRows;
         mCursor = newCursor;
-        notifyDataSetChanged();
+        if (newCursor instanceof ForecastLoader.ForecastCursor) {
+            ForecastDiff diff = ((ForecastLoader.ForecastCursor) newCursor).getDiff();
+            mRows = diff.getRows();
+            // The loader diffed against what it delivered last.  If that's what we're showing,
+            // only the rows that changed need binding; otherwise start over.
+            if (diff.startsFrom(oldRows)) {
+                diff.dispatchTo(this);
+            } else {
+                notifyDataSetChanged();
+            }
+        } else {
+            // A cursor that didn't come from the loader has to be formatted here
+            mRows = null == newCursor ? null : ForecastRow.prepare(mContext, newCursor);
+            notifyDataSetChanged();
+        }
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+/**
+ * The difference between two lists of forecast rows, as the insertions, removals and changes
+ * that turn one into the other.  Rows are matched by date.  Both lists are sorted by date, so
+ * one pass over them finds every difference, and no row can ever move.
+ * <p/>
+ * A row that becomes, or stops being, the first row counts as changed even if it looks the
+ * same, since the first row can have a layout of its own.
+ */
+public class ForecastDiff {
+    private static final int OP_INSERT = 0;
+    private static final int OP_REMOVE = 1;
+    private static final int OP_CHANGE = 2;
+
+    private final ForecastRow[] mFrom;
+    private final ForecastRow[] mTo;
+
+    // Runs of the same operation on consecutive rows, as (operation, position, count) triples.
+    // Positions are in the list as it stands once the runs before have been applied.
+    private int[] mRuns = new int[3 * 4];
+    private int mRunCount;
+
+    private int mInserted;
+    private int mRemoved;
+    private int mChanged;
+
+    private ForecastDiff(ForecastRow[] from, ForecastRow[] to) {
+        mFrom = from;
+        mTo = to;
+    }
+
+    /**
+     * @param from the rows the list shows now, or null if it shows nothing.
+     * @param to the rows it should show.
+     */
+    public static ForecastDiff compute(ForecastRow[] from, ForecastRow[] to) {
+        ForecastDiff diff = new ForecastDiff(from, to);
+        int fromCount = null == from ? 0 : from.length;
+        int toCount = null == to ? 0 : to.length;
+        int i = 0;
+        int j = 0;
+        while (i < fromCount || j < toCount) {
+            if (j == toCount || (i < fromCount && from[i].date < to[j].date)) {
+                // j is where this row sits once everything before it has been applied
+                diff.addRun(OP_REMOVE, j);
+                diff.mRemoved++;
+                i++;
+            } else if (i == fromCount || from[i].date > to[j].date) {
+                diff.addRun(OP_INSERT, j);
+                diff.mInserted++;
+                j++;
+            } else {
+                if ((0 == i) != (0 == j) || !from[i].sameContentAs(to[j])) {
+                    diff.addRun(OP_CHANGE, j);
+                    diff.mChanged++;
+                }
+                i++;
+                j++;
+            }
+        }
+        return diff;
+    }
+
+    private void addRun(int operation, int position) {
+        if (mRunCount > 0) {
+            int last = 3 * (mRunCount - 1);
+            int lastOperation = mRuns[last];
+            int lastPosition = mRuns[last + 1];
+            int lastCount = mRuns[last + 2];
+            // Removals all happen at the same position; inserts and changes move along
+            if (lastOperation == operation && ((OP_REMOVE == operation && lastPosition == position)
+                    || (OP_REMOVE != operation && lastPosition + lastCount == position))) {
+                mRuns[last + 2]++;
+                return;
+            }
+        }
+        if (3 * (mRunCount + 1) > mRuns.length) {
+            int[] runs = new int[2 * mRuns.length];
+            System.arraycopy(mRuns, 0, runs, 0, mRuns.length);
+            mRuns = runs;
+        }
+        int next = 3 * mRunCount;
+        mRuns[next] = operation;
+        mRuns[next + 1] = position;
+        mRuns[next + 2] = 1;
+        mRunCount++;
+    }
+
+    /**
+     * @return true if this diff starts from exactly these rows, so it can be applied to them.
+     */
+    public boolean startsFrom(ForecastRow[] rows) {
+        return mFrom == rows;
+    }
+
+    public ForecastRow[] getRows() {
+        return mTo;
+    }
+
+    /**
+     * @return how many rows have to be bound to apply this diff: the inserted and changed ones.
+     */
+    public int getBindCount() {
+        return mInserted + mChanged;
+    }
+
+    public int getInsertedCount() {
+        return mInserted;
+    }
+
+    public int getRemovedCount() {
+        return mRemoved;
+    }
+
+    public int getChangedCount() {
+        return mChanged;
+    }
+
+    /**
+     * Tells the adapter, which must already hold the new rows, what changed.
+     */
+    public void dispatchTo(RecyclerView.Adapter adapter) {
+        for (int run = 0; run < mRunCount; run++) {
+            int position = mRuns[3 * run + 1];
+            int count = mRuns[3 * run + 2];
+            switch (mRuns[3 * run]) {
+                case OP_INSERT:
+                    adapter.notifyItemRangeInserted(position, count);
+                    break;
+                case OP_REMOVE:
+                    adapter.notifyItemRangeRemoved(position, count);
+                    break;
+                default:
+                    adapter.notifyItemRangeChanged(position, count);
+                    break;
+            }
+        }
+    }
+}
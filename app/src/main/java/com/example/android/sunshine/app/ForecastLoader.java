@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+/**
+ * A CursorLoader that also formats the forecast list's rows while it's still on the background
+ * thread, and works out how they differ from the rows it loaded last time.  The cursor it
+ * delivers is a {@link ForecastCursor}, which carries the prepared rows and that
+ * {@link ForecastDiff} along with the data they came from.
+ * <p/>
+ * The rows carry day labels like "Today", so while it's started the loader also reloads when
+ * {@link DayLabelFormatter} says those have changed, at midnight for instance.
+ */
+public class ForecastLoader extends CursorLoader {
+
+    /**
+     * The loaded cursor, and a {@link ForecastRow} for each of its rows.
+     */
+    public static class ForecastCursor extends CursorWrapper {
+        private final ForecastDiff mDiff;
+
+        ForecastCursor(Cursor cursor, ForecastDiff diff) {
+            super(cursor);
+            mDiff = diff;
+        }
+
+        public ForecastRow[] getRows() {
+            return mDiff.getRows();
+        }
+
+        /**
+         * @return how these rows differ from the ones this loader delivered before them.
+         */
+        public ForecastDiff getDiff() {
+            return mDiff;
+        }
+    }
+
+    // Only touched by loadInBackground, which never runs twice at once
+    private ForecastRow[] mLastRows;
+
+    private final DayLabelFormatter.OnLabelsChangedListener mLabelsListener =
+            new DayLabelFormatter.OnLabelsChangedListener() {
+                @Override
+                public void onLabelsChanged() {
+                    // Reloads now if started, or as soon as it is again
+                    onContentChanged();
+                }
+            };
+
+    public ForecastLoader(Context context, Uri uri, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        DayLabelFormatter.getInstance(getContext()).addOnLabelsChangedListener(mLabelsListener);
+        super.onStartLoading();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        DayLabelFormatter.getInstance(getContext()).removeOnLabelsChangedListener(mLabelsListener);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (null == cursor) {
+            return null;
+        }
+        try {
+            ForecastRow[] rows = ForecastRow.prepare(getContext(), cursor);
+            ForecastDiff diff = ForecastDiff.compute(mLastRows, rows);
+            mLastRows = rows;
+            return new ForecastCursor(cursor, diff);
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+}
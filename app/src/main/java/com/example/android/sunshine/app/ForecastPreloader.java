@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.animation.GlideAnimation;
+import com.bumptech.glide.request.target.SimpleTarget;
+
+/**
+ * Loads the art for the rows just past the visible ones, in the direction the list is
+ * scrolling, so that it's in Glide's memory cache by the time those rows are bound.
+ * <p/>
+ * Preloads are requested at the list icon's size with the transformation the icon's ImageView
+ * gets, since anything else would be cached under a different key.  There is a fixed pool of
+ * targets, one per position ahead, so no more than that many preloads are ever in flight; a
+ * position that falls out of range has its preload cancelled and its target reused.
+ */
+public class ForecastPreloader extends RecyclerView.OnScrollListener {
+
+    private static class PreloadTarget extends SimpleTarget<GlideDrawable> {
+        int position = RecyclerView.NO_POSITION;
+        String url;
+
+        PreloadTarget(int size) {
+            super(size, size);
+        }
+
+        @Override
+        public void onResourceReady(GlideDrawable resource,
+                                    GlideAnimation<? super GlideDrawable> glideAnimation) {
+            // Nothing to show; the point was to get it into the cache
+        }
+
+        void cancel() {
+            if (RecyclerView.NO_POSITION != position) {
+                Glide.clear(this);
+                position = RecyclerView.NO_POSITION;
+                url = null;
+            }
+        }
+    }
+
+    private final Context mContext;
+    private final ForecastAdapter mAdapter;
+    private final LinearLayoutManager mLayoutManager;
+    private final PreloadTarget[] mTargets;
+
+    /**
+     * @param maxPreload how many rows past the visible ones to load, and so how many preloads
+     *                   can be in flight at once.
+     */
+    public ForecastPreloader(Context context, ForecastAdapter adapter,
+                             LinearLayoutManager layoutManager, int maxPreload) {
+        mContext = context;
+        mAdapter = adapter;
+        mLayoutManager = layoutManager;
+        int iconSize = context.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        mTargets = new PreloadTarget[maxPreload];
+        for (int i = 0; i < maxPreload; i++) {
+            mTargets[i] = new PreloadTarget(iconSize);
+        }
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        int last = mLayoutManager.findLastVisibleItemPosition();
+        if (RecyclerView.NO_POSITION == first || RecyclerView.NO_POSITION == last) {
+            return;
+        }
+        int count = mAdapter.getItemCount();
+        int maxPreload = mTargets.length;
+        // Ahead of the list, whichever way it's going
+        int start;
+        int end;
+        if (dy >= 0) {
+            start = last + 1;
+            end = Math.min(count, start + maxPreload);
+        } else {
+            end = first;
+            start = Math.max(0, end - maxPreload);
+        }
+        preload(start, end, dy >= 0);
+    }
+
+    /**
+     * Makes sure the art for positions start (inclusive) to end (exclusive) is loading, and
+     * nothing else is.
+     */
+    void preload(int start, int end, boolean forward) {
+        for (PreloadTarget target : mTargets) {
+            if (target.position < start || target.position >= end ||
+                    !sameUrl(target.url, getPreloadUrl(target.position))) {
+                target.cancel();
+            }
+        }
+        // Nearest first, so that a short fling gets the rows it needs soonest
+        for (int i = 0; i < end - start; i++) {
+            int position = forward ? start + i : end - 1 - i;
+            String url = getPreloadUrl(position);
+            if (null == url || isPreloading(position)) {
+                continue;
+            }
+            PreloadTarget target = getFreeTarget();
+            if (null == target) {
+                return;
+            }
+            target.position = position;
+            target.url = url;
+            Glide.with(mContext)
+                    .load(url)
+                    .fitCenter()
+                    .into(target);
+        }
+    }
+
+    /**
+     * Cancels every preload, for when the list goes away.
+     */
+    public void cancelAll() {
+        for (PreloadTarget target : mTargets) {
+            target.cancel();
+        }
+    }
+
+    /**
+     * @return the art URL for a row shown with the icon layout, or null if there's nothing to
+     * load for it.
+     */
+    private String getPreloadUrl(int position) {
+        if (position < 0 || position >= mAdapter.getItemCount() ||
+                mAdapter.usesTodayLayout(position)) {
+            return null;
+        }
+        return mAdapter.getArtUrl(position);
+    }
+
+    private boolean isPreloading(int position) {
+        for (PreloadTarget target : mTargets) {
+            if (target.position == position) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private PreloadTarget getFreeTarget() {
+        for (PreloadTarget target : mTargets) {
+            if (RecyclerView.NO_POSITION == target.position) {
+                return target;
+            }
+        }
+        return null;
+    }
+
+    private static boolean sameUrl(String a, String b) {
+        return null == a ? null == b : a.equals(b);
+    }
+}
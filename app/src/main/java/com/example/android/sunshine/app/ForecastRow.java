@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+
+/**
+ * Everything one row of the forecast list shows, formatted ahead of time.  {@link ForecastLoader}
+ * builds these on its background thread, so binding a row is only a matter of handing these
+ * fields to its views.
+ * <p/>
+ * The first row can be drawn with either layout, so a row carries the label and image for both.
+ */
+public class ForecastRow {
+    public final long date;
+    public final int weatherId;
+
+    // "Today, June 24" for the today layout, "Today" for the plain one
+    public final String longDateText;
+    public final String dateText;
+
+    public final int artResourceId;
+    public final int iconResourceId;
+    // null when the built-in graphics are in use
+    public final String artUrl;
+    public final String transitionName;
+
+    public final String description;
+    public final String descriptionContentDescription;
+    public final String highText;
+    public final String highContentDescription;
+    public final String lowText;
+    public final String lowContentDescription;
+
+    ForecastRow(Context context, long date, int weatherId, double high, double low) {
+        this.date = date;
+        this.weatherId = weatherId;
+
+        longDateText = Utility.getFriendlyDayString(context, date, true);
+        dateText = Utility.getFriendlyDayString(context, date, false);
+
+        artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        iconResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
+        artUrl = Utility.usingLocalGraphics(context) ? null :
+                Utility.getArtUrlForWeatherCondition(context, weatherId);
+        // this enables better animations. even if we lose state due to a device rotation,
+        // the animator can use this to re-find the original view.  It goes by date rather than
+        // position so that a row keeps its name, and needn't be rebound, when rows before it
+        // come and go.
+        transitionName = "iconView" + date;
+
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionContentDescription = context.getString(R.string.a11y_forecast, description);
+        highText = Utility.formatTemperature(context, high);
+        highContentDescription = context.getString(R.string.a11y_high_temp, highText);
+        lowText = Utility.formatTemperature(context, low);
+        lowContentDescription = context.getString(R.string.a11y_low_temp, lowText);
+    }
+
+    /**
+     * @return true if this row would look exactly like the other one.
+     */
+    boolean sameContentAs(ForecastRow other) {
+        return date == other.date &&
+                weatherId == other.weatherId &&
+                longDateText.equals(other.longDateText) &&
+                dateText.equals(other.dateText) &&
+                artResourceId == other.artResourceId &&
+                iconResourceId == other.iconResourceId &&
+                (null == artUrl ? null == other.artUrl : artUrl.equals(other.artUrl)) &&
+                description.equals(other.description) &&
+                highText.equals(other.highText) &&
+                lowText.equals(other.lowText);
+    }
+
+    /**
+     * Prepares a row for each row of a cursor with {@link ForecastFragment}'s columns, and leaves
+     * the cursor before its first row.
+     */
+    static ForecastRow[] prepare(Context context, Cursor cursor) {
+        ForecastRow[] rows = new ForecastRow[cursor.getCount()];
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            rows[cursor.getPosition()] = new ForecastRow(context,
+                    cursor.getLong(ForecastFragment.COL_WEATHER_DATE),
+                    cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID),
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP),
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+        }
+        cursor.moveToPosition(-1);
+        return rows;
+    }
+}
@@ -28,8 +28,8 @@ import android.widget.AbsListView;
 import android.widget.Checkable;
 
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which positions have been selected.  If the adapter
+ * has stable IDs, selections follow their items as the adapter reports changes in the data.
  */
 public class ItemChoiceManager {
     private final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -44,6 +44,22 @@ public class ItemChoiceManager {
             if (mAdapter != null && mAdapter.hasStableIds())
                 confirmCheckedPositionsById(mAdapter.getItemCount());
         }
+
+        // Rows coming and going shift the checked positions; the IDs tell us where they went
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            onChanged();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            onChanged();
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            onChanged();
+        }
     };
 
     private ItemChoiceManager() {
@@ -53,14 +69,9 @@ public class ItemChoiceManager {
 
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
     }
 
-    /**
-     * How many positions in either direction we will search to try to
-     * find a checked item with a stable ID that moved position across
-     * a data set change. If the item isn't found it will be unselected.
-     */
-    private static final int CHECK_POSITION_SEARCH_DISTANCE = 20;
 
     /**
      * Running state of which positions are currently checked
@@ -74,6 +85,12 @@ public class ItemChoiceManager {
      */
     LongSparseArray<Integer> mCheckedIdStates = new LongSparseArray<Integer>();
 
+    /**
+     * Where each ID sits in the adapter, rebuilt at most once per data set change, and only if
+     * some checked item has moved.
+     */
+    private final LongSparseArray<Integer> mPositionsById = new LongSparseArray<Integer>();
+
     public void onClick(RecyclerView.ViewHolder vh) {
         if (mChoiceMode == AbsListView.CHOICE_MODE_NONE)
             return;
@@ -109,6 +126,13 @@ public class ItemChoiceManager {
             case AbsListView.CHOICE_MODE_MULTIPLE: {
                 boolean checked = mCheckStates.get(position, false);
                 mCheckStates.put(position, !checked);
+                if (mAdapter.hasStableIds()) {
+                    if (checked) {
+                        mCheckedIdStates.delete(mAdapter.getItemId(position));
+                    } else {
+                        mCheckedIdStates.put(mAdapter.getItemId(position), position);
+                    }
+                }
                 // We directly call onBindViewHolder here because notifying that an item has
                 // changed on an item that has the focus causes it to lose focus, which makes
                 // keyboard navigation a bit annoying
@@ -154,38 +178,44 @@ public class ItemChoiceManager {
         mCheckedIdStates.clear();
     }
 
-    void confirmCheckedPositionsById(int oldItemCount) {
+    void confirmCheckedPositionsById(int itemCount) {
         // Clear out the positional check states, we'll rebuild it below from IDs.
         mCheckStates.clear();
 
+        boolean indexed = false;
         for (int checkedIndex = 0; checkedIndex < mCheckedIdStates.size(); checkedIndex++) {
             final long id = mCheckedIdStates.keyAt(checkedIndex);
             final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
 
-            final long lastPosId = mAdapter.getItemId(lastPos);
-            if (id != lastPosId) {
-                // Look around to see if the ID is nearby. If not, uncheck it.
-                final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
-                final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, oldItemCount);
-                boolean found = false;
-                for (int searchPos = start; searchPos < end; searchPos++) {
-                    final long searchId = mAdapter.getItemId(searchPos);
-                    if (id == searchId) {
-                        found = true;
-                        mCheckStates.put(searchPos, true);
-                        mCheckedIdStates.setValueAt(checkedIndex, searchPos);
-                        break;
-                    }
-                }
+            if (lastPos < itemCount && id == mAdapter.getItemId(lastPos)) {
+                mCheckStates.put(lastPos, true);
+                continue;
+            }
 
-                if (!found) {
-                    mCheckedIdStates.delete(id);
-                    checkedIndex--;
-                }
+            // It moved or went away.  One pass over the adapter tells us where every item is
+            // now, however many of them moved; if this one isn't there, uncheck it.
+            if (!indexed) {
+                buildPositionIndex(itemCount);
+                indexed = true;
+            }
+            final Integer newPos = mPositionsById.get(id);
+            if (null != newPos) {
+                mCheckStates.put(newPos, true);
+                mCheckedIdStates.setValueAt(checkedIndex, newPos);
             } else {
-                mCheckStates.put(lastPos, true);
+                mCheckedIdStates.removeAt(checkedIndex);
+                checkedIndex--;
             }
         }
+        mPositionsById.clear();
+    }
+
+    private void buildPositionIndex(int itemCount) {
+        mPositionsById.clear();
+        for (int position = 0; position < itemCount; position++) {
+            // append is a cheap put when the IDs come in increasing order, as dates do
+            mPositionsById.append(mAdapter.getItemId(position), position);
+        }
     }
 
     public void onBindViewHolder(RecyclerView.ViewHolder vh, int position) {
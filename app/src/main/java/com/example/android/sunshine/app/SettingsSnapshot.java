@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * The settings that formatting and queries read over and over (the location, the units and the
+ * art pack), read once into an immutable object.  Binding a list row used to go to
+ * SharedPreferences, and look up a key and a default in the resources, for every temperature
+ * and icon on it; now it's a field read.
+ * <p/>
+ * A preference listener swaps in a fresh snapshot whenever one of these settings changes.
+ * SharedPreferences notifies on the main thread, so a change made there is visible as soon as
+ * the write returns; one made on another thread shows up once the main thread gets to it, or
+ * straight away if the writer calls {@link #refresh}.
+ */
+public class SettingsSnapshot {
+
+    private static final Object sLock = new Object();
+    private static volatile SettingsSnapshot sSnapshot;
+    // SharedPreferences only holds its listeners weakly, so something has to keep this one alive
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    public final String location;
+    public final boolean metric;
+    // The art pack's URL format, and whether it's the built-in one
+    public final String artUrlFormat;
+    public final boolean localGraphics;
+
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        location = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        String metricUnits = context.getString(R.string.pref_units_metric);
+        metric = prefs.getString(context.getString(R.string.pref_units_key), metricUnits)
+                .equals(metricUnits);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        artUrlFormat = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        localGraphics = artUrlFormat.equals(sunshineArtPack);
+    }
+
+    /**
+     * @return the current settings.  The first call reads them and starts listening for changes.
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot snapshot = sSnapshot;
+        if (null != snapshot) {
+            return snapshot;
+        }
+        synchronized (sLock) {
+            if (null == sSnapshot) {
+                final Context appContext = context.getApplicationContext();
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+                sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                        if (isSnapshotKey(appContext, key)) {
+                            sSnapshot = new SettingsSnapshot(appContext, prefs);
+                        }
+                    }
+                };
+                prefs.registerOnSharedPreferenceChangeListener(sListener);
+                sSnapshot = new SettingsSnapshot(appContext, prefs);
+            }
+            return sSnapshot;
+        }
+    }
+
+    /**
+     * Re-reads the settings now, for code that changes them off the main thread and needs to
+     * see the change before the listener has run.
+     */
+    public static void refresh(Context context) {
+        Context appContext = context.getApplicationContext();
+        get(appContext);
+        sSnapshot = new SettingsSnapshot(appContext,
+                PreferenceManager.getDefaultSharedPreferences(appContext));
+    }
+
+    private static boolean isSnapshotKey(Context context, String key) {
+        return context.getString(R.string.pref_location_key).equals(key) ||
+                context.getString(R.string.pref_units_key).equals(key) ||
+                context.getString(R.string.pref_art_pack_key).equals(key);
+    }
+}
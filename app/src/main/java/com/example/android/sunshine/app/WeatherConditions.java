@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.util.Locale;
+
+/**
+ * Lookup tables for the OpenWeatherMap condition codes.  Every code is mapped once, when the
+ * class loads, to one of a handful of conditions, and each condition has its own icon, art,
+ * artwork name and photo.  Binding a row is then two array reads instead of a chain of range
+ * checks per resource.
+ * <p/>
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public class WeatherConditions {
+    // Codes run from 200 to 962; anything outside the table has no mapping
+    static final int MAX_CODE = 999;
+
+    static final int CONDITION_NONE = 0;
+    static final int CONDITION_STORM = 1;
+    static final int CONDITION_LIGHT_RAIN = 2;
+    static final int CONDITION_RAIN = 3;
+    static final int CONDITION_SNOW = 4;
+    static final int CONDITION_FOG = 5;
+    // Drawn as a storm, but it has its own photo
+    static final int CONDITION_TORNADO = 6;
+    static final int CONDITION_CLEAR = 7;
+    static final int CONDITION_LIGHT_CLOUDS = 8;
+    static final int CONDITION_CLOUDS = 9;
+
+    private static final int[] ICONS = {
+            -1,
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_storm,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
+    private static final int[] ART = {
+            -1,
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_storm,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+
+    // The names the art packs use in their URLs
+    private static final String[] ART_NAMES = {
+            null,
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "storm",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+
+    private static final String[] IMAGE_URLS = {
+            null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    // Inclusive code ranges and their condition.  Where ranges overlap the first one wins, so
+    // 761 (dust) stays fog and only 781 gets the tornado photo.
+    private static final int[][] CONDITION_RANGES = {
+            {200, 232, CONDITION_STORM},
+            {300, 321, CONDITION_LIGHT_RAIN},
+            {500, 504, CONDITION_RAIN},
+            {511, 511, CONDITION_SNOW},
+            {520, 531, CONDITION_RAIN},
+            {600, 622, CONDITION_SNOW},
+            {701, 761, CONDITION_FOG},
+            {781, 781, CONDITION_TORNADO},
+            {800, 800, CONDITION_CLEAR},
+            {801, 801, CONDITION_LIGHT_CLOUDS},
+            {802, 804, CONDITION_CLOUDS}
+    };
+
+    // The descriptions are finer grained than the pictures: thunderstorms and drizzle share one
+    // string each, everything else has its own or none at all.
+    private static final int[][] STRING_RANGES = {
+            {200, 232, R.string.condition_2xx},
+            {300, 321, R.string.condition_3xx},
+            {500, 500, R.string.condition_500},
+            {501, 501, R.string.condition_501},
+            {502, 502, R.string.condition_502},
+            {503, 503, R.string.condition_503},
+            {504, 504, R.string.condition_504},
+            {511, 511, R.string.condition_511},
+            {520, 520, R.string.condition_520},
+            {531, 531, R.string.condition_531},
+            {600, 600, R.string.condition_600},
+            {601, 601, R.string.condition_601},
+            {602, 602, R.string.condition_602},
+            {611, 611, R.string.condition_611},
+            {612, 612, R.string.condition_612},
+            {615, 615, R.string.condition_615},
+            {616, 616, R.string.condition_616},
+            {620, 620, R.string.condition_620},
+            {621, 621, R.string.condition_621},
+            {622, 622, R.string.condition_622},
+            {701, 701, R.string.condition_701},
+            {711, 711, R.string.condition_711},
+            {721, 721, R.string.condition_721},
+            {731, 731, R.string.condition_731},
+            {741, 741, R.string.condition_741},
+            {751, 751, R.string.condition_751},
+            {761, 761, R.string.condition_761},
+            {762, 762, R.string.condition_762},
+            {771, 771, R.string.condition_771},
+            {781, 781, R.string.condition_781},
+            {800, 800, R.string.condition_800},
+            {801, 801, R.string.condition_801},
+            {802, 802, R.string.condition_802},
+            {803, 803, R.string.condition_803},
+            {804, 804, R.string.condition_804},
+            {900, 900, R.string.condition_900},
+            {901, 901, R.string.condition_901},
+            {902, 902, R.string.condition_902},
+            {903, 903, R.string.condition_903},
+            {904, 904, R.string.condition_904},
+            {905, 905, R.string.condition_905},
+            {906, 906, R.string.condition_906},
+            {951, 951, R.string.condition_951},
+            {952, 952, R.string.condition_952},
+            {953, 953, R.string.condition_953},
+            {954, 954, R.string.condition_954},
+            {955, 955, R.string.condition_955},
+            {956, 956, R.string.condition_956},
+            {957, 957, R.string.condition_957},
+            {958, 958, R.string.condition_958},
+            {959, 959, R.string.condition_959},
+            {960, 960, R.string.condition_960},
+            {961, 961, R.string.condition_961},
+            {962, 962, R.string.condition_962}
+    };
+
+    private static final byte[] sConditions = new byte[MAX_CODE + 1];
+    private static final int[] sStringIds = new int[MAX_CODE + 1];
+
+    static {
+        for (int i = CONDITION_RANGES.length - 1; i >= 0; i--) {
+            int[] range = CONDITION_RANGES[i];
+            for (int code = range[0]; code <= range[1]; code++) {
+                sConditions[code] = (byte) range[2];
+            }
+        }
+        for (int[] range : STRING_RANGES) {
+            for (int code = range[0]; code <= range[1]; code++) {
+                sStringIds[code] = range[2];
+            }
+        }
+    }
+
+    // The last art URL format and the URLs formatted from it, one per condition.  Replaced as
+    // a whole when the art pack changes, so readers never see a half-filled array.
+    private static volatile ArtUrls sArtUrls;
+
+    private static final class ArtUrls {
+        final String format;
+        final String[] urls = new String[ART_NAMES.length];
+
+        ArtUrls(String format) {
+            this.format = format;
+            for (int i = 1; i < ART_NAMES.length; i++) {
+                urls[i] = String.format(Locale.US, format, ART_NAMES[i]);
+            }
+        }
+    }
+
+    private WeatherConditions() {
+    }
+
+    /**
+     * @return one of the CONDITION_ constants, {@link #CONDITION_NONE} for codes we don't know.
+     */
+    static int getCondition(int weatherId) {
+        if (weatherId < 0 || weatherId > MAX_CODE) {
+            return CONDITION_NONE;
+        }
+        return sConditions[weatherId];
+    }
+
+    /**
+     * @return resource id for the condition's icon, -1 if there is none.
+     */
+    public static int getIconResource(int weatherId) {
+        return ICONS[getCondition(weatherId)];
+    }
+
+    /**
+     * @return resource id for the condition's artwork, -1 if there is none.
+     */
+    public static int getArtResource(int weatherId) {
+        return ART[getCondition(weatherId)];
+    }
+
+    /**
+     * @param formatArtUrl the art pack's URL format, with one %s for the artwork name.
+     * @return url for the condition's artwork in that pack, null if there is none.
+     */
+    public static String getArtUrl(String formatArtUrl, int weatherId) {
+        int condition = getCondition(weatherId);
+        if (CONDITION_NONE == condition) {
+            return null;
+        }
+        ArtUrls artUrls = sArtUrls;
+        if (null == artUrls || !artUrls.format.equals(formatArtUrl)) {
+            artUrls = new ArtUrls(formatArtUrl);
+            sArtUrls = artUrls;
+        }
+        return artUrls.urls[condition];
+    }
+
+    /**
+     * @return a URL to a photo of the condition, null if there is none.
+     */
+    public static String getImageUrl(int weatherId) {
+        return IMAGE_URLS[getCondition(weatherId)];
+    }
+
+    /**
+     * @return resource id for the condition's description, 0 if there is none.
+     */
+    public static int getStringResource(int weatherId) {
+        if (weatherId < 0 || weatherId > MAX_CODE) {
+            return 0;
+        }
+        return sStringIds[weatherId];
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+
+/**
+ * Writes a batch of hourly rows the way {@link WeatherBulkInserter} writes daily ones: through
+ * one compiled INSERT, with dates normalized as they're bound, then purges the days that have
+ * gone by, all in one transaction.  A row for an hour that's already stored replaces it, by the
+ * table's UNIQUE constraint.
+ */
+class HourlyBulkInserter {
+    private static final String LOG_TAG = HourlyBulkInserter.class.getSimpleName();
+
+    // Bind order for the compiled statement
+    private static final String[] COLUMNS = {
+            HourlyEntry.COLUMN_LOC_KEY,
+            HourlyEntry.COLUMN_DATE,
+            HourlyEntry.COLUMN_HOUR,
+            HourlyEntry.COLUMN_TEMP,
+            HourlyEntry.COLUMN_HUMIDITY,
+            HourlyEntry.COLUMN_WEATHER_ID
+    };
+    private static final int DATE_INDEX = 1;
+
+    private static final String INSERT_SQL = "INSERT INTO " + HourlyEntry.TABLE_NAME + " (" +
+            HourlyEntry.COLUMN_LOC_KEY + "," + HourlyEntry.COLUMN_DATE + "," +
+            HourlyEntry.COLUMN_HOUR + "," + HourlyEntry.COLUMN_TEMP + "," +
+            HourlyEntry.COLUMN_HUMIDITY + "," + HourlyEntry.COLUMN_WEATHER_ID +
+            ") VALUES (?,?,?,?,?,?)";
+
+    /**
+     * @param purgeBefore rows dated on or before this are deleted, for every location.  0 to
+     *                    skip the purge.
+     * @return the number of rows inserted or purged.
+     */
+    static int insertAll(SQLiteDatabase db, ContentValues[] values, long purgeBefore) {
+        int returnCount = 0;
+        Time scratchTime = new Time();
+        WeatherDbHelper.beginWriteTransaction(db);
+        SQLiteStatement statement = db.compileStatement(INSERT_SQL);
+        try {
+            for (ContentValues value : values) {
+                if (insert(db, statement, value, scratchTime) != -1) {
+                    returnCount++;
+                }
+            }
+            if (purgeBefore > 0) {
+                // This scans the table.  It holds a few hundred rows, and an index on date alone
+                // would cost more space than the scan costs time.
+                returnCount += db.delete(HourlyEntry.TABLE_NAME,
+                        HourlyEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(purgeBefore)});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            statement.close();
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    private static long insert(SQLiteDatabase db, SQLiteStatement statement,
+                               ContentValues values, Time scratchTime) {
+        if (!hasExactColumns(values)) {
+            // Anything unusual, like an explicit _ID, goes the slow way
+            if (values.containsKey(HourlyEntry.COLUMN_DATE)) {
+                values.put(HourlyEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                        values.getAsLong(HourlyEntry.COLUMN_DATE), scratchTime));
+            }
+            return db.insert(HourlyEntry.TABLE_NAME, null, values);
+        }
+        for (int i = 0; i < COLUMNS.length; i++) {
+            Object value = values.get(COLUMNS[i]);
+            if (i == DATE_INDEX && null != value) {
+                statement.bindLong(i + 1, WeatherContract.normalizeDate(
+                        values.getAsLong(COLUMNS[i]), scratchTime));
+            } else {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, value);
+            }
+        }
+        try {
+            return statement.executeInsert();
+        } catch (SQLException e) {
+            // SQLiteDatabase.insert logs and swallows constraint failures; do the same
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    private static boolean hasExactColumns(ContentValues values) {
+        if (values.size() != COLUMNS.length) {
+            return false;
+        }
+        for (String column : COLUMNS) {
+            if (!values.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.v4.util.LruCache;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+
+/**
+ * The location table, or as much of it as fits, held in memory by location setting.  Every sync
+ * looks each of its locations up by setting before writing weather against it, and the table
+ * hardly ever changes, so the provider answers from here and only goes to the database on a miss.
+ * <p/>
+ * The provider invalidates the cache on every write to the location table.  Lookups don't hold
+ * the cache's lock while they read the database; a generation count keeps a lookup that raced
+ * with an invalidation from putting a stale row back.
+ */
+class LocationCache {
+    static final int MAX_LOCATIONS = 64;
+
+    static final class Entry {
+        final long id;
+        final double latitude;
+        final double longitude;
+
+        Entry(long id, double latitude, double longitude) {
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry._ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+    private static final int COL_LOCATION_SETTING = 0;
+    private static final int COL_ID = 1;
+    private static final int COL_COORD_LAT = 2;
+    private static final int COL_COORD_LONG = 3;
+
+    private final LruCache<String, Entry> mEntries = new LruCache<String, Entry>(MAX_LOCATIONS);
+    private int mGeneration;
+    private boolean mWarm;
+
+    // For tests
+    private int mHits;
+    private int mMisses;
+
+    /**
+     * @return the stored location with this setting, or null if there isn't one.
+     */
+    Entry get(SQLiteDatabase db, String locationSetting) {
+        int generation;
+        boolean warm;
+        synchronized (this) {
+            Entry entry = mEntries.get(locationSetting);
+            if (null != entry) {
+                mHits++;
+                return entry;
+            }
+            mMisses++;
+            generation = mGeneration;
+            warm = mWarm;
+        }
+
+        // The first lookup loads the whole table, up to the cache's size, in one query
+        if (!warm) {
+            ArrayList<String> settings = new ArrayList<String>();
+            ArrayList<Entry> entries = new ArrayList<Entry>();
+            Cursor cursor = db.query(LocationEntry.TABLE_NAME, LOCATION_COLUMNS, null, null,
+                    null, null, null, Integer.toString(MAX_LOCATIONS));
+            try {
+                while (cursor.moveToNext()) {
+                    settings.add(cursor.getString(COL_LOCATION_SETTING));
+                    entries.add(readEntry(cursor));
+                }
+            } finally {
+                cursor.close();
+            }
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    for (int i = 0; i < settings.size(); i++) {
+                        mEntries.put(settings.get(i), entries.get(i));
+                    }
+                    mWarm = true;
+                }
+            }
+            // The table is small enough that warming it usually answers the lookup too
+            int index = settings.indexOf(locationSetting);
+            if (index >= 0) {
+                return entries.get(index);
+            } else if (settings.size() < MAX_LOCATIONS) {
+                // That was the whole table, so it isn't there
+                return null;
+            }
+        }
+
+        Entry entry = null;
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, LOCATION_COLUMNS,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{locationSetting},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                entry = readEntry(cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (null != entry) {
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    mEntries.put(locationSetting, entry);
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Forgets everything; the next lookup loads the table again.
+     */
+    synchronized void invalidate() {
+        mEntries.evictAll();
+        mGeneration++;
+        mWarm = false;
+    }
+
+    synchronized int getHitCount() {
+        return mHits;
+    }
+
+    synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    private static Entry readEntry(Cursor cursor) {
+        return new Entry(cursor.getLong(COL_ID), cursor.getDouble(COL_COORD_LAT),
+                cursor.getDouble(COL_COORD_LONG));
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * One step in the weather database's history: whatever it takes to bring a database at
+ * {@code toVersion - 1} up to {@code toVersion} without losing its rows.
+ * <p/>
+ * A step describes the schema as it was at its own version, so it must spell out its SQL
+ * rather than build it from {@link WeatherContract}, whose names may move on later.
+ */
+abstract class Migration {
+    final int toVersion;
+
+    Migration(int toVersion) {
+        this.toVersion = toVersion;
+    }
+
+    /**
+     * Runs inside the upgrade transaction SQLiteOpenHelper already holds.
+     */
+    abstract void migrate(SQLiteDatabase db);
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Keeps the history the weather table lets go of.  Days purged from the weather table move
+ * here a row a day; {@link #compact} later folds days older than
+ * {@link ArchiveEntry#DAILY_RETENTION_DAYS} into a row a week, so the archive grows by about
+ * 52 rows a year per location instead of 365.
+ * <p/>
+ * Compaction goes a location at a time, {@link #CHUNK_WEEKS} weeks per transaction, so a
+ * sync that wants to write never waits behind more than one chunk.
+ */
+class WeatherArchive {
+
+    static final int CHUNK_WEEKS = 4;
+    // Enough for a couple of years of one location's backlog; the rest waits for the next run
+    static final int MAX_CHUNKS_PER_RUN = 32;
+
+    private static final String ARCHIVE_COLUMNS = ArchiveEntry.COLUMN_LOC_KEY + ", " +
+            ArchiveEntry.COLUMN_DATE + ", " + ArchiveEntry.COLUMN_PERIOD + ", " +
+            ArchiveEntry.COLUMN_WEATHER_ID + ", " + ArchiveEntry.COLUMN_MIN_TEMP + ", " +
+            ArchiveEntry.COLUMN_MAX_TEMP + ", " + ArchiveEntry.COLUMN_HUMIDITY + ", " +
+            ArchiveEntry.COLUMN_PRESSURE + ", " + ArchiveEntry.COLUMN_WIND_SPEED;
+
+    // Copies the weather rows on or before a date into the archive, scaled to integers
+    private static final String ARCHIVE_SQL = "INSERT INTO " + ArchiveEntry.TABLE_NAME + " (" +
+            ARCHIVE_COLUMNS + ") SELECT " +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            ArchiveEntry.PERIOD_DAY + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            toTenths(WeatherEntry.COLUMN_MIN_TEMP) + ", " +
+            toTenths(WeatherEntry.COLUMN_MAX_TEMP) + ", " +
+            toWhole(WeatherEntry.COLUMN_HUMIDITY) + ", " +
+            toWhole(WeatherEntry.COLUMN_PRESSURE) + ", " +
+            toTenths(WeatherEntry.COLUMN_WIND_SPEED) +
+            " FROM " + WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_DATE + " <= ?";
+
+    // One location's days in [date, date + 7 days)
+    private static final String WEEK_SELECTION = ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " +
+            ArchiveEntry.COLUMN_DATE + " >= ? AND " + ArchiveEntry.COLUMN_DATE + " < ? AND " +
+            ArchiveEntry.COLUMN_PERIOD + " = " + ArchiveEntry.PERIOD_DAY;
+
+    // Writes the summary of one location's week.  SQLite reads the whole SELECT before it
+    // inserts, so replacing a day that falls on the week's first date doesn't disturb it.
+    private static final String SUMMARIZE_WEEK_SQL = "INSERT INTO " + ArchiveEntry.TABLE_NAME +
+            " (" + ARCHIVE_COLUMNS + ") SELECT " +
+            ArchiveEntry.COLUMN_LOC_KEY + ", ?, " +
+            ArchiveEntry.PERIOD_WEEK + ", " +
+            "(SELECT " + ArchiveEntry.COLUMN_WEATHER_ID + " FROM " + ArchiveEntry.TABLE_NAME +
+            " WHERE " + WEEK_SELECTION + " ORDER BY " + severity(ArchiveEntry.COLUMN_WEATHER_ID) +
+            " DESC, " + ArchiveEntry.COLUMN_WEATHER_ID + " DESC LIMIT 1), " +
+            "MIN(" + ArchiveEntry.COLUMN_MIN_TEMP + "), " +
+            "MAX(" + ArchiveEntry.COLUMN_MAX_TEMP + "), " +
+            toWhole("AVG(" + ArchiveEntry.COLUMN_HUMIDITY + ")") + ", " +
+            toWhole("AVG(" + ArchiveEntry.COLUMN_PRESSURE + ")") + ", " +
+            toWhole("AVG(" + ArchiveEntry.COLUMN_WIND_SPEED + ")") +
+            " FROM " + ArchiveEntry.TABLE_NAME + " WHERE " + WEEK_SELECTION +
+            " GROUP BY " + ArchiveEntry.COLUMN_LOC_KEY;
+
+    static final String COUNT_WEEK_SQL = "SELECT COUNT(*) FROM " +
+            ArchiveEntry.TABLE_NAME + " WHERE " + WEEK_SELECTION;
+
+    static final String FIRST_DAY_SQL = "SELECT MIN(" + ArchiveEntry.COLUMN_DATE +
+            ") FROM " + ArchiveEntry.TABLE_NAME + " WHERE " +
+            ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " +
+            ArchiveEntry.COLUMN_PERIOD + " = " + ArchiveEntry.PERIOD_DAY;
+
+    /**
+     * Ranks an OpenWeatherMap condition code by how much it matters, for picking the one
+     * condition a week is remembered by.  The codes themselves don't sort that way: thunderstorms
+     * (2xx) come before hurricanes (9xx), and clear sky (800) before clouds (80x).  Within a rank,
+     * a higher code wins, which for rain, snow and clouds is the heavier kind.
+     */
+    static String severity(String column) {
+        return "CASE" +
+                // Tornado, tropical storm, hurricane, storm
+                " WHEN " + column + " = 781 OR " + column + " BETWEEN 900 AND 902 OR " +
+                column + " BETWEEN 960 AND 962 THEN 9" +
+                " WHEN " + column + " BETWEEN 200 AND 299 THEN 8" +
+                // Extreme cold, heat, wind or hail, and gales
+                " WHEN " + column + " BETWEEN 903 AND 906 OR " +
+                column + " BETWEEN 957 AND 959 THEN 7" +
+                " WHEN " + column + " BETWEEN 600 AND 699 THEN 6" +
+                " WHEN " + column + " BETWEEN 500 AND 599 THEN 5" +
+                " WHEN " + column + " BETWEEN 300 AND 399 THEN 4" +
+                // Mist, fog, haze, dust and the like
+                " WHEN " + column + " BETWEEN 700 AND 799 THEN 3" +
+                " WHEN " + column + " BETWEEN 801 AND 804 THEN 2" +
+                // Calm to strong breeze
+                " WHEN " + column + " BETWEEN 951 AND 956 THEN 1" +
+                " ELSE 0 END";
+    }
+
+    private static String toTenths(String expression) {
+        return "CAST(ROUND(" + expression + " * 10) AS INTEGER)";
+    }
+
+    private static String toWhole(String expression) {
+        return "CAST(ROUND(" + expression + ") AS INTEGER)";
+    }
+
+    /**
+     * What a compaction run did, for logging and tests.
+     */
+    static class CompactionResult {
+        // Rows the archive is smaller by
+        int rowsRemoved;
+        int chunks;
+        // The longest any one chunk held the write lock
+        long longestChunkMillis;
+        // true if the run stopped at MAX_CHUNKS_PER_RUN with work left over
+        boolean incomplete;
+    }
+
+    /**
+     * Moves every weather row dated on or before {@code purgeBefore} into the archive and
+     * deletes it from the weather table.  Call it inside the caller's transaction.
+     *
+     * @return the number of weather rows deleted.
+     */
+    static int archiveWeather(SQLiteDatabase db, long purgeBefore) {
+        String[] args = new String[]{Long.toString(purgeBefore)};
+        db.execSQL(ARCHIVE_SQL, args);
+        return db.delete(WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_DATE + " <= ?", args);
+    }
+
+    /**
+     * Summarizes, into weeks, the archived days of every location from before the week that
+     * {@link ArchiveEntry#DAILY_RETENTION_DAYS} ago falls in.
+     *
+     * @param now the current time, in milliseconds since the epoch.
+     */
+    static CompactionResult compact(SQLiteDatabase db, long now) {
+        CompactionResult result = new CompactionResult();
+        Time scratch = new Time();
+        scratch.set(now);
+        int cutoffWeek = getWeekStart(Time.getJulianDay(now, scratch.gmtoff) -
+                ArchiveEntry.DAILY_RETENTION_DAYS);
+
+        long[] locationIds = getLocationIds(db);
+        for (long locationId : locationIds) {
+            String location = Long.toString(locationId);
+            while (true) {
+                // Start each chunk at the oldest day left, skipping over any weeks with none
+                long firstDay = DatabaseUtils.longForQuery(db, FIRST_DAY_SQL,
+                        new String[]{location});
+                if (firstDay == 0) {
+                    break;
+                }
+                scratch.set(firstDay);
+                int week = getWeekStart(Time.getJulianDay(firstDay, scratch.gmtoff));
+                if (week >= cutoffWeek) {
+                    break;
+                }
+                if (result.chunks == MAX_CHUNKS_PER_RUN) {
+                    result.incomplete = true;
+                    return result;
+                }
+
+                long start = SystemClock.elapsedRealtime();
+                WeatherDbHelper.beginWriteTransaction(db);
+                try {
+                    for (int i = 0; i < CHUNK_WEEKS && week < cutoffWeek; i++, week += 7) {
+                        result.rowsRemoved += summarizeWeek(db, location, week, scratch);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                result.chunks++;
+                result.longestChunkMillis = Math.max(result.longestChunkMillis,
+                        SystemClock.elapsedRealtime() - start);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return how many rows fewer the location's week now takes.
+     */
+    private static int summarizeWeek(SQLiteDatabase db, String location, int julianWeek,
+                                     Time scratch) {
+        String weekStart = Long.toString(scratch.setJulianDay(julianWeek));
+        String weekEnd = Long.toString(scratch.setJulianDay(julianWeek + 7));
+        String[] args = new String[]{location, weekStart, weekEnd};
+        long days = DatabaseUtils.longForQuery(db, COUNT_WEEK_SQL, args);
+        if (days == 0) {
+            return 0;
+        }
+        // The condition's subquery takes the week's selection too
+        db.execSQL(SUMMARIZE_WEEK_SQL, new String[]{weekStart, location, weekStart, weekEnd,
+                location, weekStart, weekEnd});
+        // A day on the week's first date was replaced by the summary rather than deleted
+        db.delete(ArchiveEntry.TABLE_NAME, WEEK_SELECTION, args);
+        return (int) days - 1;
+    }
+
+    /**
+     * @return the Julian day of the Monday on or before the given one.
+     */
+    static int getWeekStart(int julianDay) {
+        // Julian day 0 was a Monday
+        return julianDay - julianDay % 7;
+    }
+
+    private static long[] getLocationIds(SQLiteDatabase db) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                null, null, null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Inserts weather rows through one pre-compiled INSERT statement instead of letting
+ * {@link SQLiteDatabase#insert} build and compile fresh SQL for every row.  Dates are normalized
+ * as they are bound, reusing a single {@link Time}, and the caller's ContentValues are left as
+ * they were.
+ * <p/>
+ * Rows that don't carry exactly the columns below (an explicit _ID, say) fall back to
+ * {@link SQLiteDatabase#insert}, so any row the old loop accepted is still accepted.
+ * <p/>
+ * This doesn't manage transactions; callers should wrap a batch in one.
+ */
+class WeatherBulkInserter {
+    private static final String LOG_TAG = WeatherBulkInserter.class.getSimpleName();
+
+    // Bind order for the compiled statement
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int DATE_INDEX = 1;
+
+    private static final String INSERT_SQL = buildInsertSql();
+
+    private final SQLiteDatabase mDb;
+    private final Time mScratchTime = new Time();
+    private SQLiteStatement mStatement;
+
+    WeatherBulkInserter(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    private static String buildInsertSql() {
+        // The table's UNIQUE (date, location_id) ON CONFLICT REPLACE applies here just as it
+        // does to SQLiteDatabase.insert, so no conflict clause is needed
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(WeatherEntry.TABLE_NAME)
+                .append(" (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * Inserts every row, inside a transaction.
+     *
+     * @return the number of rows inserted.
+     */
+    static int insertAll(SQLiteDatabase db, ContentValues[] values) {
+        WeatherBulkInserter inserter = new WeatherBulkInserter(db);
+        int returnCount = 0;
+        WeatherDbHelper.beginWriteTransaction(db);
+        try {
+            for (ContentValues value : values) {
+                if (inserter.insert(value) != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            inserter.close();
+        }
+        return returnCount;
+    }
+
+    /**
+     * @return the new row id, or -1 if the insert failed.
+     */
+    long insert(ContentValues values) {
+        if (!hasExactColumns(values)) {
+            if (values.containsKey(WeatherEntry.COLUMN_DATE)) {
+                // Normalize a copy; the caller's values stay as they were
+                values = new ContentValues(values);
+                values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                        values.getAsLong(WeatherEntry.COLUMN_DATE), mScratchTime));
+            }
+            return mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+        }
+
+        if (null == mStatement) {
+            mStatement = mDb.compileStatement(INSERT_SQL);
+        }
+        for (int i = 0; i < COLUMNS.length; i++) {
+            Object value = values.get(COLUMNS[i]);
+            if (i == DATE_INDEX && null != value) {
+                mStatement.bindLong(i + 1, WeatherContract.normalizeDate(
+                        values.getAsLong(COLUMNS[i]), mScratchTime));
+            } else {
+                DatabaseUtils.bindObjectToProgram(mStatement, i + 1, value);
+            }
+        }
+        try {
+            return mStatement.executeInsert();
+        } catch (SQLException e) {
+            // SQLiteDatabase.insert logs and swallows constraint failures; do the same
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    void close() {
+        if (null != mStatement) {
+            mStatement.close();
+            mStatement = null;
+        }
+    }
+
+    private static boolean hasExactColumns(ContentValues values) {
+        if (values.size() != COLUMNS.length) {
+            return false;
+        }
+        for (String column : COLUMNS) {
+            if (!values.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -43,15 +43,63 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_ARCHIVE = "archive";
+
+    // Methods for ContentResolver.call on BASE_CONTENT_URI, from this app's own process only.
+    // Between begin and end, change notifications are collected instead of sent, then each URI is
+    // notified once.  End returns a Bundle with EXTRA_SUPPRESSED_NOTIFICATIONS, the number of
+    // notifications that turned out to be duplicates.  Batches nest; only the outermost end sends.
+    public static final String METHOD_BEGIN_NOTIFICATION_BATCH = "begin_notification_batch";
+    public static final String METHOD_END_NOTIFICATION_BATCH = "end_notification_batch";
+    public static final String EXTRA_SUPPRESSED_NOTIFICATIONS = "suppressed_notifications";
+
+    // Also for call, and also this process only: summarize archived days older than
+    // ArchiveEntry.DAILY_RETENTION_DAYS into weeks.  Does a bounded amount of work in short
+    // transactions, so call it again later if there's more.  Returns a Bundle with
+    // EXTRA_COMPACTED_ROWS, how many rows that saved.
+    public static final String METHOD_COMPACT_ARCHIVE = "compact_archive";
+    public static final String EXTRA_COMPACTED_ROWS = "compacted_rows";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
+        return normalizeDate(startDate, new Time());
+    }
+
+    /**
+     * Same as {@link #normalizeDate(long)}, but reuses the caller's Time so a loop over many
+     * rows doesn't allocate one per row.
+     */
+    public static long normalizeDate(long startDate, Time scratch) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        scratch.set(startDate);
+        int julianDay = Time.getJulianDay(startDate, scratch.gmtoff);
+        return scratch.setJulianDay(julianDay);
+    }
+
+    /**
+     * @return the URI's query parameter as a long, or {@code defaultValue} if it's missing or
+     * empty.
+     */
+    static long getLongParameter(Uri uri, String parameter, long defaultValue) {
+        String value = uri.getQueryParameter(parameter);
+        if (null != value && value.length() > 0) {
+            return Long.parseLong(value);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @return the URI's query parameter as an int, or {@code defaultValue} if it's missing or
+     * empty.
+     */
+    static int getIntParameter(Uri uri, String parameter, int defaultValue) {
+        String value = uri.getQueryParameter(parameter);
+        if (null != value && value.length() > 0) {
+            return Integer.parseInt(value);
+        }
+        return defaultValue;
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,9 +129,22 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Query parameter understood by insert on CONTENT_URI.  Inserting a location setting
+        // that's already stored then hands back the existing row instead of failing, so a batch
+        // can back-reference the location's id whether or not it was new.
+        public static final String PARAM_IF_ABSENT = "if_absent";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        public static Uri buildLocationIfAbsentUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_IF_ABSENT, "true").build();
+        }
+
+        public static boolean isIfAbsentUri(Uri uri) {
+            return "true".equals(uri.getQueryParameter(PARAM_IF_ABSENT));
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -126,6 +187,46 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameters understood by bulkInsert on CONTENT_URI.  An incremental bulk insert
+        // only writes rows that differ from what's stored, then purges everything dated on or
+        // before the purge date, all in one transaction with a single change notification.
+        // Purged days aren't lost: they move into the archive table.  A delete on an incremental
+        // URI does just the purge.  An update on an incremental URI writes its values as the row
+        // for their location and date, inserting it if there isn't one, and counts 1 only if that
+        // changed anything.
+        public static final String PARAM_INCREMENTAL = "incremental";
+        public static final String PARAM_PURGE_BEFORE = "purge_before";
+
+        // Query parameters for paging through weather/* a screenful at a time.  PARAM_LIMIT,
+        // optionally with PARAM_OFFSET, is the usual LIMIT and OFFSET.  PARAM_AFTER instead asks
+        // for the days after a date, normally the last one on the previous page, so the next page
+        // starts with an index seek rather than by stepping over every row before it.  It takes
+        // the place of a start date.  Pages are in ascending date order unless told otherwise.
+        public static final String PARAM_LIMIT = "limit";
+        public static final String PARAM_OFFSET = "offset";
+        public static final String PARAM_AFTER = "after";
+
+        // weather/*/stats summarizes a location's days from PARAM_FROM to PARAM_TO, both
+        // inclusive and both optional, in a single row.  COLUMN_MIN_TEMP is the lowest low and
+        // COLUMN_MAX_TEMP the highest high; the rest are named for what they hold.  Over a range
+        // with no days in it, COLUMN_DAY_COUNT is 0 and the rest are null.
+        public static final String PATH_STATS = "stats";
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+
+        public static final String COLUMN_DAY_COUNT = "days";
+        // The average of each day's midpoint between its low and high
+        public static final String COLUMN_AVG_TEMP = "avg_temp";
+        public static final String COLUMN_MIN_HUMIDITY = "min_humidity";
+        public static final String COLUMN_MAX_HUMIDITY = "max_humidity";
+        public static final String COLUMN_AVG_HUMIDITY = "avg_humidity";
+        public static final String COLUMN_MIN_PRESSURE = "min_pressure";
+        public static final String COLUMN_MAX_PRESSURE = "max_pressure";
+        public static final String COLUMN_AVG_PRESSURE = "avg_pressure";
+        public static final String COLUMN_MIN_WIND_SPEED = "min_wind";
+        public static final String COLUMN_MAX_WIND_SPEED = "max_wind";
+        public static final String COLUMN_AVG_WIND_SPEED = "avg_wind";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,6 +250,57 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /**
+         * @param startDate the first day to include, or 0 for every stored day.
+         * @param limit     how many days to return.
+         * @param offset    how many days to skip first.
+         */
+        public static Uri buildWeatherLocationPage(
+                String locationSetting, long startDate, int limit, int offset) {
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendPath(locationSetting);
+            if (startDate != 0) {
+                builder.appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)));
+            }
+            return builder.appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .appendQueryParameter(PARAM_OFFSET, Integer.toString(offset))
+                    .build();
+        }
+
+        /**
+         * @param afterDate the last day already loaded; the page starts with the day after it.
+         * @param limit     how many days to return.
+         */
+        public static Uri buildWeatherLocationAfter(
+                String locationSetting, long afterDate, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_AFTER, Long.toString(normalizeDate(afterDate)))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        /**
+         * @param fromDate the first day to summarize, or 0 to start with the earliest stored.
+         * @param toDate   the last day to summarize, or 0 to go on to the latest stored.
+         */
+        public static Uri buildWeatherStats(String locationSetting, long fromDate, long toDate) {
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_STATS);
+            if (fromDate != 0) {
+                builder.appendQueryParameter(PARAM_FROM, Long.toString(normalizeDate(fromDate)));
+            }
+            if (toDate != 0) {
+                builder.appendQueryParameter(PARAM_TO, Long.toString(normalizeDate(toDate)));
+            }
+            return builder.build();
+        }
+
+        public static Uri buildWeatherIncrementalUri(long purgeBeforeDate) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_INCREMENTAL, "true")
+                    .appendQueryParameter(PARAM_PURGE_BEFORE, Long.toString(purgeBeforeDate))
+                    .build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -157,12 +309,164 @@ public class WeatherContract {
             return Long.parseLong(uri.getPathSegments().get(2));
         }
 
+        public static boolean isIncrementalUri(Uri uri) {
+            return "true".equals(uri.getQueryParameter(PARAM_INCREMENTAL));
+        }
+
+        public static long getPurgeBeforeFromUri(Uri uri) {
+            return getLongParameter(uri, PARAM_PURGE_BEFORE, 0);
+        }
+
+        public static int getLimitFromUri(Uri uri) {
+            return getIntParameter(uri, PARAM_LIMIT, 0);
+        }
+
+        public static int getOffsetFromUri(Uri uri) {
+            return getIntParameter(uri, PARAM_OFFSET, 0);
+        }
+
+        public static long getAfterDateFromUri(Uri uri) {
+            return getLongParameter(uri, PARAM_AFTER, 0);
+        }
+
+        public static long getFromDateFromUri(Uri uri) {
+            return getLongParameter(uri, PARAM_FROM, 0);
+        }
+
+        public static long getToDateFromUri(Uri uri) {
+            return getLongParameter(uri, PARAM_TO, 0);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            return getLongParameter(uri, COLUMN_DATE, 0);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the hourly table: the short-range forecast,
+        in 3-hour steps, kept apart from the daily forecast because there's ten times as much of
+        it.  To keep that affordable, every column is a small integer.
+     */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // The day, normalized like WeatherEntry.COLUMN_DATE, and the hours since it began.
+        // Rows sharing a date make up one day of the daily forecast.
+        public static final String COLUMN_DATE = "date";
+        public static final String COLUMN_HOUR = "hour";
+        // Temperature in tenths of a degree Celsius, so it fits in two bytes instead of eight
+        public static final String COLUMN_TEMP = "temp";
+        // Humidity in whole percent
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        // hourly/*/daily rolls each day up into one row with COLUMN_DATE and these two, in
+        // degrees Celsius, named to match the daily forecast's columns.
+        public static final String PATH_DAILY = "daily";
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+
+        // Query parameter understood by bulkInsert on CONTENT_URI: after writing the rows, delete
+        // every row, for every location, dated on or before this day.
+        public static final String PARAM_PURGE_BEFORE = "purge_before";
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHourlyLocationWithStartDate(String locationSetting, long startDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .build();
+        }
+
+        public static Uri buildHourlyDailyWithStartDate(String locationSetting, long startDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(PATH_DAILY)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .build();
+        }
+
+        public static Uri buildHourlyIngestUri(long purgeBeforeDate) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_PURGE_BEFORE, Long.toString(purgeBeforeDate))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            return getLongParameter(uri, COLUMN_DATE, 0);
+        }
+
+        public static long getPurgeBeforeFromUri(Uri uri) {
+            return getLongParameter(uri, PARAM_PURGE_BEFORE, 0);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the archive table: the days that have gone
+        by, as they were last forecast.  The most recent DAILY_RETENTION_DAYS stay a row a day;
+        compaction folds anything older into one row a week.  Like the hourly table, it keeps to
+        small integers, and the provider converts them back on the way out.
+     */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "archive";
+
+        public static final int DAILY_RETENTION_DAYS = 90;
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // The first day the row covers, normalized like WeatherEntry.COLUMN_DATE
+        public static final String COLUMN_DATE = "date";
+        // How many days the row covers: PERIOD_DAY, or PERIOD_WEEK for a row summarizing the
+        // week that starts on its date.  A week's summary covers whichever of its days we had.
+        public static final String COLUMN_PERIOD = "period";
+        public static final int PERIOD_DAY = 1;
+        public static final int PERIOD_WEEK = 7;
+        // For a week, its most severe condition, ranked by WeatherArchive.severity
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // For a week, the lowest low and highest high.  Stored in tenths of a degree.
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        // For a week, averages.  Humidity and pressure are stored whole, wind in tenths.
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+
+        public static Uri buildArchiveLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildArchiveLocationWithStartDate(String locationSetting, long startDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
         public static long getStartDateFromUri(Uri uri) {
-            String dateString = uri.getQueryParameter(COLUMN_DATE);
-            if (null != dateString && dateString.length() > 0)
-                return Long.parseLong(dateString);
-            else
-                return 0;
+            return getLongParameter(uri, COLUMN_DATE, 0);
         }
     }
 }
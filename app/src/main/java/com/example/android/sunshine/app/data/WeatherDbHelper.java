@@ -15,10 +15,14 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -27,13 +31,44 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add a
+    // step to WeatherMigrations.
+    static final int DATABASE_VERSION = 5;
 
     static final String DATABASE_NAME = "weather.db";
 
+    static final String WEATHER_LOCATION_DATE_INDEX = "weather_location_date";
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // With a write-ahead log, the loaders, widgets and wearable service can keep reading
+        // while a sync holds a write transaction, instead of queueing up behind it
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Before Jelly Bean the helper can't do it for us.  Honeycomb is as far back as WAL goes.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB &&
+                Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    /**
+     * Starts a write transaction that doesn't lock readers out, where the platform allows it.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static void beginWriteTransaction(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            db.beginTransactionNonExclusive();
+        } else {
+            db.beginTransaction();
+        }
     }
 
     @Override
@@ -79,20 +114,74 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // The hourly forecast has ten times the rows, so it keeps to small integers, has no
+        // AUTOINCREMENT bookkeeping, and lets its one UNIQUE index double as the index every
+        // query walks: one location's days, in order, and within each day its hours.
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY, " +
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_HOUR + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TEMP + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                "FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                "UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " + HourlyEntry.COLUMN_DATE + ", " +
+                HourlyEntry.COLUMN_HOUR + ") ON CONFLICT REPLACE);";
+
+        // The archive is laid out the same way, with one row per location and day or week
+        final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+                ArchiveEntry._ID + " INTEGER PRIMARY KEY, " +
+                ArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_PERIOD + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                "FOREIGN KEY (" + ArchiveEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                "UNIQUE (" + ArchiveEntry.COLUMN_LOC_KEY + ", " + ArchiveEntry.COLUMN_DATE +
+                ") ON CONFLICT REPLACE);";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+        createWeatherIndexes(sqLiteDatabase);
+    }
+
+    /**
+     * The UNIQUE constraint above gives us an index on (date, location_id), which is the wrong
+     * way round for the provider: every weather URI looks up one location and then walks its
+     * days in date order.  This index serves location_id = ? with date = ?, date >= ? or no date
+     * at all, and hands the rows back already sorted by date.
+     */
+    static void createWeatherIndexes(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + WEATHER_LOCATION_DATE_INDEX +
+                " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");");
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // Keep whatever forecasts we have if there's a migration path; an empty cache means a
+        // cold sync before the user sees anything
+        if (WeatherMigrations.migrate(sqLiteDatabase, oldVersion, newVersion)) {
+            return;
+        }
+
+        // This database is only a cache for online data, so when there's no way to migrate it
+        // we simply discard the data and start over.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArchiveEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * The ordered list of {@link Migration} steps for the weather database, and the code that
+ * walks a database through them.
+ * <p/>
+ * To change the schema: bump the version in {@link WeatherDbHelper}, make the same change in
+ * its onCreate, and add a step here that gets an existing database to the same place.
+ */
+class WeatherMigrations {
+    private static final String LOG_TAG = WeatherMigrations.class.getSimpleName();
+
+    // Anything older than this was never given migrations and is rebuilt from scratch
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    private static final Migration[] MIGRATIONS = {
+            // 3: index weather by (location_id, date) for the provider's queries
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS weather_location_date " +
+                            "ON weather (location_id, date);");
+                }
+            },
+            // 4: the hourly forecast gets a table of its own
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE hourly (" +
+                            "_id INTEGER PRIMARY KEY, " +
+                            "location_id INTEGER NOT NULL, " +
+                            "date INTEGER NOT NULL, " +
+                            "hour INTEGER NOT NULL, " +
+                            "temp INTEGER NOT NULL, " +
+                            "humidity INTEGER NOT NULL, " +
+                            "weather_id INTEGER NOT NULL, " +
+                            "FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            "UNIQUE (location_id, date, hour) ON CONFLICT REPLACE);");
+                }
+            },
+            // 5: past days go to an archive instead of being dropped
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE archive (" +
+                            "_id INTEGER PRIMARY KEY, " +
+                            "location_id INTEGER NOT NULL, " +
+                            "date INTEGER NOT NULL, " +
+                            "period INTEGER NOT NULL, " +
+                            "weather_id INTEGER NOT NULL, " +
+                            "min INTEGER NOT NULL, " +
+                            "max INTEGER NOT NULL, " +
+                            "humidity INTEGER NOT NULL, " +
+                            "pressure INTEGER NOT NULL, " +
+                            "wind INTEGER NOT NULL, " +
+                            "FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            "UNIQUE (location_id, date) ON CONFLICT REPLACE);");
+                }
+            },
+    };
+
+    /**
+     * @return true if there is an unbroken run of steps from oldVersion to newVersion.
+     */
+    static boolean canMigrate(int oldVersion, int newVersion) {
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION || oldVersion > newVersion) {
+            return false;
+        }
+        int version = oldVersion;
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion <= version) {
+                continue;
+            }
+            if (migration.toVersion > newVersion) {
+                break;
+            }
+            if (migration.toVersion != version + 1) {
+                return false;
+            }
+            version = migration.toVersion;
+        }
+        return version == newVersion;
+    }
+
+    /**
+     * Applies, in order, every step after oldVersion up to and including newVersion.
+     *
+     * @return false, having changed nothing, if some step in between is missing.
+     */
+    static boolean migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (!canMigrate(oldVersion, newVersion)) {
+            return false;
+        }
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion > oldVersion && migration.toVersion <= newVersion) {
+                long start = System.nanoTime();
+                migration.migrate(db);
+                Log.d(LOG_TAG, "Migrated weather.db to version " + migration.toVersion + " in "
+                        + (System.nanoTime() - start) / 1000000 + "ms");
+            }
+        }
+        return true;
+    }
+}
@@ -17,29 +17,108 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Process;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private static final String TAG = "WeatherProvider";
     private WeatherDbHelper mOpenHelper;
+    private final LocationCache mLocationCache = new LocationCache();
+
+    // Change notifications held back while a notification batch is open.  The batch is shared by
+    // every thread, so a sync running several locations at once still notifies each URI once.
+    private final Object mNotificationLock = new Object();
+    private final LinkedHashSet<Uri> mPendingNotifications = new LinkedHashSet<Uri>();
+    private int mNotificationBatchDepth;
+    private int mSuppressedNotifications;
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_STATS = 103;
     static final int LOCATION = 300;
+    static final int HOURLY = 400;
+    static final int HOURLY_WITH_LOCATION = 401;
+    static final int HOURLY_DAILY_WITH_LOCATION = 402;
+    static final int ARCHIVE = 500;
+    static final int ARCHIVE_WITH_LOCATION = 501;
+
+    // archive.location_id = ? AND archive.date >= ?
+    static final String sArchiveByLocationWithStartDateSelection =
+            WeatherContract.ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.ArchiveEntry.COLUMN_DATE + " >= ? ";
+
+    static final String sArchiveOrder = WeatherContract.ArchiveEntry.COLUMN_DATE + " ASC";
+
+    // The archive stores integers; this turns them back into the units the weather table uses
+    static final Map<String, String> sArchiveProjectionMap = buildArchiveProjectionMap();
+
+    static final SQLiteQueryBuilder sArchiveQueryBuilder;
+
+    // hourly.location_id = ? AND hourly.date >= ?
+    static final String sHourlyByLocationWithStartDateSelection =
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_DATE + " >= ? ";
+
+    static final String sHourlyOrder = WeatherContract.HourlyEntry.COLUMN_DATE + " ASC, " +
+            WeatherContract.HourlyEntry.COLUMN_HOUR + " ASC";
+
+    static final String sHourlyDailyOrder = WeatherContract.HourlyEntry.COLUMN_DATE + " ASC";
+
+    // One row per day, shaped like the daily forecast's.  The date stands in for _id, which
+    // CursorAdapter wants.  Temperatures are stored in tenths of a degree.
+    static final String[] sHourlyDailyColumns = {
+            WeatherContract.HourlyEntry.COLUMN_DATE + " AS " + WeatherContract.HourlyEntry._ID,
+            WeatherContract.HourlyEntry.COLUMN_DATE,
+            "MIN(" + WeatherContract.HourlyEntry.COLUMN_TEMP + ") / 10.0 AS " +
+                    WeatherContract.HourlyEntry.COLUMN_MIN_TEMP,
+            "MAX(" + WeatherContract.HourlyEntry.COLUMN_TEMP + ") / 10.0 AS " +
+                    WeatherContract.HourlyEntry.COLUMN_MAX_TEMP
+    };
+
+    // weather.location_id = ? AND weather.date >= ? AND weather.date <= ?
+    static final String sWeatherByLocationAndRangeSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ? ";
+
+    // What each weather/*/stats column is computed as, in the order a null projection gets them
+    static final Map<String, String> sWeatherStatsProjectionMap = buildWeatherStatsProjectionMap();
+
+    static final SQLiteQueryBuilder sWeatherStatsQueryBuilder;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
+        sArchiveQueryBuilder = new SQLiteQueryBuilder();
+        sArchiveQueryBuilder.setTables(WeatherContract.ArchiveEntry.TABLE_NAME);
+        sArchiveQueryBuilder.setProjectionMap(sArchiveProjectionMap);
+
+        sWeatherStatsQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherStatsQueryBuilder.setTables(WeatherContract.WeatherEntry.TABLE_NAME);
+        sWeatherStatsQueryBuilder.setProjectionMap(sWeatherStatsProjectionMap);
+
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
         
         //This is an inner join which looks like
@@ -54,18 +133,24 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
+    //location.location_setting = ? AND date > ?
+    static final String sLocationSettingAfterDateSelection =
+            WeatherContract.LocationEntry.TABLE_NAME+
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -73,11 +158,16 @@ public class WeatherProvider extends ContentProvider {
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
+        String limit = getLimit(uri);
 
         String[] selectionArgs;
         String selection;
 
-        if (startDate == 0) {
+        if (afterDate != 0) {
+            selectionArgs = new String[]{locationSetting, Long.toString(afterDate)};
+            selection = sLocationSettingAfterDateSelection;
+        } else if (startDate == 0) {
             selection = sLocationSettingSelection;
             selectionArgs = new String[]{locationSetting};
         } else {
@@ -85,16 +175,34 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingWithStartDateSelection;
         }
 
+        if (null != limit && null == sortOrder) {
+            // A page only means something in a fixed order
+            sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        }
+
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
                 selection,
                 selectionArgs,
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                limit
         );
     }
 
+    /**
+     * @return the LIMIT clause the URI's paging parameters ask for, or null for every row.
+     */
+    private static String getLimit(Uri uri) {
+        int limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
+        if (limit <= 0) {
+            return null;
+        }
+        int offset = WeatherContract.WeatherEntry.getOffsetFromUri(uri);
+        return offset > 0 ? offset + "," + limit : Integer.toString(limit);
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
@@ -112,6 +220,133 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private static Map<String, String> buildArchiveProjectionMap() {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        String[] asStored = {
+                WeatherContract.ArchiveEntry._ID,
+                WeatherContract.ArchiveEntry.COLUMN_LOC_KEY,
+                WeatherContract.ArchiveEntry.COLUMN_DATE,
+                WeatherContract.ArchiveEntry.COLUMN_PERIOD,
+                WeatherContract.ArchiveEntry.COLUMN_WEATHER_ID
+        };
+        for (String column : asStored) {
+            map.put(column, column);
+        }
+        putAggregate(map, WeatherContract.ArchiveEntry.COLUMN_MIN_TEMP + " / 10.0",
+                WeatherContract.ArchiveEntry.COLUMN_MIN_TEMP);
+        putAggregate(map, WeatherContract.ArchiveEntry.COLUMN_MAX_TEMP + " / 10.0",
+                WeatherContract.ArchiveEntry.COLUMN_MAX_TEMP);
+        map.put(WeatherContract.ArchiveEntry.COLUMN_HUMIDITY,
+                WeatherContract.ArchiveEntry.COLUMN_HUMIDITY);
+        map.put(WeatherContract.ArchiveEntry.COLUMN_PRESSURE,
+                WeatherContract.ArchiveEntry.COLUMN_PRESSURE);
+        putAggregate(map, WeatherContract.ArchiveEntry.COLUMN_WIND_SPEED + " / 10.0",
+                WeatherContract.ArchiveEntry.COLUMN_WIND_SPEED);
+        return map;
+    }
+
+    private static Map<String, String> buildWeatherStatsProjectionMap() {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        putAggregate(map, "COUNT(*)", WeatherContract.WeatherEntry.COLUMN_DAY_COUNT);
+        putAggregate(map, "MIN(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ")",
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        putAggregate(map, "MAX(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ")",
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        putAggregate(map, "AVG((" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " + " +
+                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ") / 2)",
+                WeatherContract.WeatherEntry.COLUMN_AVG_TEMP);
+        putMinMaxAvg(map, WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_MIN_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_MAX_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_AVG_HUMIDITY);
+        putMinMaxAvg(map, WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_MIN_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_MAX_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_AVG_PRESSURE);
+        putMinMaxAvg(map, WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherContract.WeatherEntry.COLUMN_MIN_WIND_SPEED,
+                WeatherContract.WeatherEntry.COLUMN_MAX_WIND_SPEED,
+                WeatherContract.WeatherEntry.COLUMN_AVG_WIND_SPEED);
+        return map;
+    }
+
+    private static void putMinMaxAvg(Map<String, String> map, String column,
+                                     String minAlias, String maxAlias, String avgAlias) {
+        putAggregate(map, "MIN(" + column + ")", minAlias);
+        putAggregate(map, "MAX(" + column + ")", maxAlias);
+        putAggregate(map, "AVG(" + column + ")", avgAlias);
+    }
+
+    private static void putAggregate(Map<String, String> map, String expression, String alias) {
+        map.put(alias, expression + " AS " + alias);
+    }
+
+    /**
+     * One row summarizing a location's days in the URI's range.  Like the hourly queries, the
+     * location comes from the cache rather than a join, leaving SQLite a single range over the
+     * (location_id, date) index to aggregate.
+     */
+    private Cursor getWeatherStats(Uri uri, String[] projection) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        LocationCache.Entry location = mLocationCache.get(db,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+        long locationId = null == location ? -1 : location.id;
+        long toDate = WeatherContract.WeatherEntry.getToDateFromUri(uri);
+        return sWeatherStatsQueryBuilder.query(db,
+                projection,
+                sWeatherByLocationAndRangeSelection,
+                new String[]{Long.toString(locationId),
+                        Long.toString(WeatherContract.WeatherEntry.getFromDateFromUri(uri)),
+                        Long.toString(toDate == 0 ? Long.MAX_VALUE : toDate)},
+                null,
+                null,
+                null
+        );
+    }
+
+    /**
+     * One location's archived days and weeks from the URI's start date on, oldest first, read
+     * off the archive's unique index with the location resolved through the cache.
+     */
+    private Cursor getArchiveByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        LocationCache.Entry location = mLocationCache.get(db,
+                WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri));
+        long locationId = null == location ? -1 : location.id;
+        return sArchiveQueryBuilder.query(db,
+                projection,
+                sArchiveByLocationWithStartDateSelection,
+                new String[]{Long.toString(locationId),
+                        Long.toString(WeatherContract.ArchiveEntry.getStartDateFromUri(uri))},
+                null,
+                null,
+                null == sortOrder ? sArchiveOrder : sortOrder
+        );
+    }
+
+    /**
+     * The hourly rows for one location from the URI's start date on, or with groupBy set, their
+     * aggregates.  The location is resolved through the cache instead of a join, so the query is a
+     * single range over the hourly table's unique index, already in (date, hour) order.
+     */
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String groupBy,
+                                              String sortOrder) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        LocationCache.Entry location = mLocationCache.get(db,
+                WeatherContract.HourlyEntry.getLocationSettingFromUri(uri));
+        // An unknown location still gets a cursor of the right shape, just an empty one
+        long locationId = null == location ? -1 : location.id;
+        return db.query(WeatherContract.HourlyEntry.TABLE_NAME,
+                projection,
+                sHourlyByLocationWithStartDateSelection,
+                new String[]{Long.toString(locationId),
+                        Long.toString(WeatherContract.HourlyEntry.getStartDateFromUri(uri))},
+                groupBy,
+                null,
+                null == sortOrder ? sHourlyOrder : sortOrder
+        );
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -132,8 +367,18 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.WeatherEntry.PATH_STATS, WEATHER_STATS);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*/" +
+                WeatherContract.HourlyEntry.PATH_DAILY, HOURLY_DAILY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*", ARCHIVE_WITH_LOCATION);
         return matcher;
     }
 
@@ -162,12 +407,21 @@ public class WeatherProvider extends ContentProvider {
             // Student: Uncomment and fill out these two cases
             case WEATHER_WITH_LOCATION_AND_DATE:
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
+            case WEATHER_STATS:
+                return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+            case HOURLY_DAILY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case ARCHIVE:
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -186,6 +440,11 @@ public class WeatherProvider extends ContentProvider {
                 retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
                 break;
             }
+            // "weather/*/stats"
+            case WEATHER_STATS: {
+                retCursor = getWeatherStats(uri, projection);
+                break;
+            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
                 retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
@@ -217,6 +476,48 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, null, sortOrder);
+                break;
+            }
+            // "hourly/*/daily"
+            case HOURLY_DAILY_WITH_LOCATION: {
+                // By date alone: ordering by hour as well would sort the groups in a temp b-tree
+                retCursor = getHourlyByLocationSetting(uri, sHourlyDailyColumns,
+                        WeatherContract.HourlyEntry.COLUMN_DATE, sHourlyDailyOrder);
+                break;
+            }
+            // "archive"
+            case ARCHIVE: {
+                retCursor = sArchiveQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "archive/*"
+            case ARCHIVE_WITH_LOCATION: {
+                retCursor = getArchiveByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -245,20 +546,77 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
             case LOCATION: {
+                if (WeatherContract.LocationEntry.isIfAbsentUri(uri)) {
+                    return insertLocationIfAbsent(db, values);
+                }
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                mLocationCache.invalidate();
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case HOURLY: {
+                long _id = db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values);
+                if (_id <= 0) {
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                }
+                returnUri = ContentUris.withAppendedId(WeatherContract.HourlyEntry.CONTENT_URI, _id);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
+    /**
+     * Looks the location setting up and inserts it only if it isn't there.  The usual case, a
+     * location we already have, is answered from the cache.  Otherwise the check is made again
+     * inside one write transaction, so that two syncs can't both decide it's missing.
+     */
+    private Uri insertLocationIfAbsent(SQLiteDatabase db, ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        LocationCache.Entry cached = mLocationCache.get(db, locationSetting);
+        if (null != cached) {
+            return WeatherContract.LocationEntry.buildLocationUri(cached.id);
+        }
+
+        long _id;
+        boolean inserted = false;
+        WeatherDbHelper.beginWriteTransaction(db);
+        try {
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID},
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{locationSetting}, null, null, null);
+            try {
+                _id = cursor.moveToFirst() ? cursor.getLong(0) : -1;
+            } finally {
+                cursor.close();
+            }
+            if (_id == -1) {
+                _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                if (_id <= 0) {
+                    throw new android.database.SQLException("Failed to insert row into " +
+                            WeatherContract.LocationEntry.CONTENT_URI);
+                }
+                inserted = true;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (inserted) {
+            mLocationCache.invalidate();
+            notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+        return WeatherContract.LocationEntry.buildLocationUri(_id);
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
@@ -268,19 +626,32 @@ public class WeatherProvider extends ContentProvider {
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
+                if (WeatherContract.WeatherEntry.isIncrementalUri(uri)) {
+                    return purgeWeather(db,
+                            WeatherContract.WeatherEntry.getPurgeBeforeFromUri(uri));
+                }
                 rowsDeleted = db.delete(
                         WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                mLocationCache.invalidate();
+                break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case ARCHIVE:
+                rowsDeleted = db.delete(
+                        WeatherContract.ArchiveEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -302,6 +673,9 @@ public class WeatherProvider extends ContentProvider {
 
         switch (match) {
             case WEATHER:
+                if (WeatherContract.WeatherEntry.isIncrementalUri(uri)) {
+                    return upsertWeather(db, values);
+                }
                 normalizeDate(values);
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
@@ -309,12 +683,13 @@ public class WeatherProvider extends ContentProvider {
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                mLocationCache.invalidate();
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -325,27 +700,331 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                if (WeatherContract.WeatherEntry.isIncrementalUri(uri)) {
+                    return bulkUpsertWeather(db, values,
+                            WeatherContract.WeatherEntry.getPurgeBeforeFromUri(uri));
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                int returnCount = WeatherBulkInserter.insertAll(db, values);
+                notifyChange(uri);
                 return returnCount;
+            case HOURLY:
+                int hourlyCount = HourlyBulkInserter.insertAll(db, values,
+                        WeatherContract.HourlyEntry.getPurgeBeforeFromUri(uri));
+                if (hourlyCount != 0) {
+                    notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+                }
+                return hourlyCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Writes only the weather rows that differ from what's already stored for their location, and
+     * moves old days into the archive, inside one transaction.  Observers hear about it once, and only if
+     * something actually changed.
+     *
+     * @param purgeBefore rows dated on or before this are archived, for every location.  0 to
+     *                    skip the purge.
+     * @return the number of rows inserted, updated or purged.  0 means the table is unchanged.
+     */
+    private int bulkUpsertWeather(SQLiteDatabase db, ContentValues[] values, long purgeBefore) {
+        int changedCount = 0;
+        int purgedCount = 0;
+        WeatherDbHelper.beginWriteTransaction(db);
+        try {
+            // location_id -> (date -> stored row), loaded once per location in the batch
+            HashMap<Long, HashMap<Long, ContentValues>> storedByLocation =
+                    new HashMap<Long, HashMap<Long, ContentValues>>();
+
+            for (ContentValues value : values) {
+                normalizeDate(value);
+                Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+
+                HashMap<Long, ContentValues> storedRows = storedByLocation.get(locationId);
+                if (null == storedRows) {
+                    storedRows = loadWeatherForLocation(db, locationId);
+                    storedByLocation.put(locationId, storedRows);
+                }
+
+                changedCount += writeWeatherRow(db, value, storedRows.get(date));
+            }
+
+            if (purgeBefore > 0) {
+                purgedCount = WeatherArchive.archiveWeather(db, purgeBefore);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changedCount + purgedCount != 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        if (purgedCount != 0) {
+            notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI);
+        }
+        return changedCount + purgedCount;
+    }
+
+    /**
+     * Moves every weather row dated on or before {@code purgeBefore} into the archive.
+     *
+     * @return the number of weather rows moved.
+     */
+    private int purgeWeather(SQLiteDatabase db, long purgeBefore) {
+        int purgedCount;
+        WeatherDbHelper.beginWriteTransaction(db);
+        try {
+            purgedCount = WeatherArchive.archiveWeather(db, purgeBefore);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (purgedCount != 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+            notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI);
+        }
+        return purgedCount;
+    }
+
+    /**
+     * The single-row form of {@link #bulkUpsertWeather}, for use in a batch: writes the row for
+     * the values' location and date only if it differs from what's stored.
+     *
+     * @return 1 if the row was inserted or changed, 0 if it was already up to date.
+     */
+    private int upsertWeather(SQLiteDatabase db, ContentValues values) {
+        normalizeDate(values);
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        int changedCount;
+        WeatherDbHelper.beginWriteTransaction(db);
+        try {
+            ContentValues stored = null;
+            if (null != locationId && null != date) {
+                Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                                WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                        new String[]{locationId.toString(), date.toString()}, null, null, null);
+                try {
+                    if (cursor.moveToFirst()) {
+                        stored = readWeatherRow(cursor, cursor.getColumnNames());
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            changedCount = writeWeatherRow(db, values, stored);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changedCount != 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        return changedCount;
+    }
+
+    /**
+     * Inserts the row if nothing is stored for its day, or updates the stored row if it differs.
+     * A row that can't be inserted throws, so the transaction it's part of rolls back rather than
+     * committing without it.
+     *
+     * @return the number of rows written, 0 or 1.
+     */
+    private static int writeWeatherRow(SQLiteDatabase db, ContentValues value,
+                                       ContentValues stored) {
+        if (null == stored) {
+            if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) == -1) {
+                throw new android.database.SQLException("Failed to insert row into " +
+                        WeatherContract.WeatherEntry.CONTENT_URI);
+            }
+            return 1;
+        } else if (!sameWeather(stored, value)) {
+            return db.update(WeatherContract.WeatherEntry.TABLE_NAME, value,
+                    WeatherContract.WeatherEntry._ID + " = ?",
+                    new String[]{Long.toString(
+                            stored.getAsLong(WeatherContract.WeatherEntry._ID))});
+        }
+        return 0;
+    }
+
+    private HashMap<Long, ContentValues> loadWeatherForLocation(SQLiteDatabase db, Long locationId) {
+        HashMap<Long, ContentValues> storedRows = new HashMap<Long, ContentValues>();
+        if (null == locationId) {
+            return storedRows;
+        }
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{locationId.toString()}, null, null, null);
+        try {
+            String[] columns = cursor.getColumnNames();
+            int dateIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+            while (cursor.moveToNext()) {
+                storedRows.put(cursor.getLong(dateIndex), readWeatherRow(cursor, columns));
+            }
+        } finally {
+            cursor.close();
+        }
+        return storedRows;
+    }
+
+    private static ContentValues readWeatherRow(Cursor cursor, String[] columns) {
+        // Read numbers as numbers so the comparison in sameWeather isn't at the mercy of how
+        // SQLite prints a REAL
+        ContentValues row = new ContentValues(columns.length);
+        for (int i = 0; i < columns.length; i++) {
+            if (cursor.isNull(i)) {
+                row.putNull(columns[i]);
+            } else if (WeatherContract.WeatherEntry.COLUMN_SHORT_DESC.equals(columns[i])) {
+                row.put(columns[i], cursor.getString(i));
+            } else {
+                row.put(columns[i], cursor.getDouble(i));
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Compares every column of an incoming row against the stored one.  Numbers are compared by
+     * value, so an int 78 matches a stored 78.0.
+     */
+    private static boolean sameWeather(ContentValues stored, ContentValues incoming) {
+        for (Map.Entry<String, Object> entry : incoming.valueSet()) {
+            Object value = entry.getValue();
+            Object storedValue = stored.get(entry.getKey());
+            if (null == value || null == storedValue) {
+                if (value != storedValue) {
+                    return false;
+                }
+            } else if (value instanceof Number && storedValue instanceof Number) {
+                if (((Number) value).doubleValue() != ((Number) storedValue).doubleValue()) {
+                    return false;
+                }
+            } else if (!value.toString().equals(storedValue.toString())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies the operations in a single transaction: either all of them take effect or, if one
+     * throws, none do.  Back-references between them work as usual, so an insert's id can feed
+     * the operations after it.  Change notifications are held back until the end, so each URI is
+     * notified once however many operations touched it.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        boolean successful = false;
+        beginNotificationBatch();
+        WeatherDbHelper.beginWriteTransaction(db);
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            successful = true;
+            return results;
+        } finally {
+            db.endTransaction();
+            if (!successful) {
+                // The cache may have picked up a location that has just been rolled back
+                mLocationCache.invalidate();
+            }
+            endNotificationBatch();
+        }
+    }
+
+    /**
+     * Lets code in our own process open and close a notification batch around several calls.
+     * See {@link WeatherContract#METHOD_BEGIN_NOTIFICATION_BATCH}.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_BEGIN_NOTIFICATION_BATCH.equals(method) ||
+                WeatherContract.METHOD_END_NOTIFICATION_BATCH.equals(method)) {
+            // The provider is exported, and a batch left open would silence it for good
+            if (Binder.getCallingPid() != Process.myPid()) {
+                throw new SecurityException("Notification batches are only for this app");
+            }
+            if (WeatherContract.METHOD_BEGIN_NOTIFICATION_BATCH.equals(method)) {
+                beginNotificationBatch();
+                return null;
+            }
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_SUPPRESSED_NOTIFICATIONS, endNotificationBatch());
+            return result;
+        }
+        if (WeatherContract.METHOD_COMPACT_ARCHIVE.equals(method)) {
+            if (Binder.getCallingPid() != Process.myPid()) {
+                throw new SecurityException("Compaction is only for this app");
+            }
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_COMPACTED_ROWS,
+                    compactArchive(System.currentTimeMillis()).rowsRemoved);
+            return result;
+        }
+        // The base class knows no methods either
+        return null;
+    }
+
+    WeatherArchive.CompactionResult compactArchive(long now) {
+        WeatherArchive.CompactionResult result =
+                WeatherArchive.compact(mOpenHelper.getWritableDatabase(), now);
+        Log.d(TAG, "Archive compaction: " + result.rowsRemoved + " rows in " + result.chunks
+                + " chunks, longest " + result.longestChunkMillis + "ms"
+                + (result.incomplete ? ", more to do" : ""));
+        if (result.rowsRemoved != 0) {
+            notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI);
+        }
+        return result;
+    }
+
+    void beginNotificationBatch() {
+        synchronized (mNotificationLock) {
+            mNotificationBatchDepth++;
+        }
+    }
+
+    /**
+     * Closes a batch.  Closing the outermost one sends every URI collected since it opened.
+     *
+     * @return how many notifications were dropped as duplicates, if this closed the outermost
+     * batch; otherwise 0.
+     */
+    int endNotificationBatch() {
+        Uri[] uris;
+        int suppressed;
+        synchronized (mNotificationLock) {
+            if (--mNotificationBatchDepth > 0) {
+                return 0;
+            }
+            mNotificationBatchDepth = 0;
+            uris = mPendingNotifications.toArray(new Uri[mPendingNotifications.size()]);
+            mPendingNotifications.clear();
+            suppressed = mSuppressedNotifications;
+            mSuppressedNotifications = 0;
+        }
+        for (Uri uri : uris) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return suppressed;
+    }
+
+    private void notifyChange(Uri uri) {
+        synchronized (mNotificationLock) {
+            if (mNotificationBatchDepth > 0) {
+                if (!mPendingNotifications.add(uri)) {
+                    mSuppressedNotifications++;
+                }
+                return;
+            }
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
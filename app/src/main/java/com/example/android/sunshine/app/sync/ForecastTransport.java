@@ -0,0 +1,47 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * The sync adapter's view of the network: issue a GET, get back a status, some headers and a
+ * body stream.  {@link HttpTransport} is the real thing; tests hand the adapter a fake through
+ * {@link SunshineSyncAdapter#setTransport(ForecastTransport)}.
+ */
+public interface ForecastTransport {
+
+    /**
+     * Issues a GET request.  The caller must close the returned response, which is what lets the
+     * underlying connection go back to the pool for the next request.
+     *
+     * @param url     the full request URL
+     * @param headers extra request headers, may be empty
+     */
+    Response get(String url, Map<String, String> headers) throws IOException;
+
+    interface Response extends Closeable {
+        int getCode() throws IOException;
+
+        /**
+         * @return the named response header, or null if the server didn't send it.
+         */
+        String getHeader(String name);
+
+        /**
+         * @return the decoded response body.  Compression has already been taken care of.
+         */
+        InputStream getBody() throws IOException;
+
+        /**
+         * @return how many body bytes have come off the network so far.
+         */
+        long getWireBytes();
+
+        /**
+         * @return how many body bytes have been handed to the reader so far, after decoding.
+         */
+        long getDecodedBytes();
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * Remembers, per location, what the server last told us about the forecast: its ETag, its
+ * Last-Modified date and a hash of the body.  The next sync for that location sends the first two
+ * back as a conditional request, and compares the hash to catch servers that ignore them.
+ */
+public class ForecastValidators {
+    private static final String PREFS_NAME = "forecast_validators";
+    private static final String HASH_ALGORITHM = "SHA-1";
+
+    private static final String KEY_ETAG = ".etag";
+    private static final String KEY_LAST_MODIFIED = ".last_modified";
+    private static final String KEY_BODY_HASH = ".body_hash";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final String mLocationSetting;
+    private String mETag;
+    private String mLastModified;
+    private String mBodyHash;
+    private MessageDigest mDigest;
+
+    private ForecastValidators(String locationSetting) {
+        mLocationSetting = locationSetting;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Reads the validators stored for a location.  A location we've never synced comes back
+     * empty, which makes {@link #applyTo(Map)} a no-op.
+     */
+    public static ForecastValidators load(Context context, String locationSetting) {
+        SharedPreferences prefs = getPreferences(context);
+        ForecastValidators validators = new ForecastValidators(locationSetting);
+        validators.mETag = prefs.getString(locationSetting + KEY_ETAG, null);
+        validators.mLastModified = prefs.getString(locationSetting + KEY_LAST_MODIFIED, null);
+        validators.mBodyHash = prefs.getString(locationSetting + KEY_BODY_HASH, null);
+        return validators;
+    }
+
+    /**
+     * Forgets everything stored for a location, so the next sync is unconditional.
+     */
+    public static void clear(Context context, String locationSetting) {
+        getPreferences(context).edit()
+                .remove(locationSetting + KEY_ETAG)
+                .remove(locationSetting + KEY_LAST_MODIFIED)
+                .remove(locationSetting + KEY_BODY_HASH)
+                .commit();
+    }
+
+    public String getETag() {
+        return mETag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    public String getBodyHash() {
+        return mBodyHash;
+    }
+
+    /**
+     * Adds If-None-Match and If-Modified-Since headers for whatever we have stored.
+     */
+    public void applyTo(Map<String, String> headers) {
+        if (null != mETag) {
+            headers.put("If-None-Match", mETag);
+        }
+        if (null != mLastModified) {
+            headers.put("If-Modified-Since", mLastModified);
+        }
+    }
+
+    /**
+     * Wraps a response body so that it is hashed as it is read.  Call
+     * {@link #finishDigest(InputStream)} once the parser is done with it.
+     */
+    public InputStream digest(InputStream in) {
+        try {
+            mDigest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release ships SHA-1
+            throw new RuntimeException(e);
+        }
+        return new DigestInputStream(in, mDigest);
+    }
+
+    /**
+     * Reads whatever the parser left behind (usually trailing whitespace) so the hash covers the
+     * whole body, and returns it as a hex string.
+     */
+    public String finishDigest(InputStream in) throws IOException {
+        byte[] scratch = new byte[256];
+        while (in.read(scratch) != -1) {
+            // draining into the digest
+        }
+        return toHex(mDigest.digest());
+    }
+
+    /**
+     * @return true if a body with this hash is the one we already stored.
+     */
+    public boolean isUnchanged(String bodyHash) {
+        return null != mBodyHash && mBodyHash.equals(bodyHash);
+    }
+
+    /**
+     * Stores the validators from a successful response along with the hash of its body.
+     */
+    public void save(Context context, ForecastTransport.Response response, String bodyHash) {
+        mETag = response.getHeader("ETag");
+        mLastModified = response.getHeader("Last-Modified");
+        mBodyHash = bodyHash;
+
+        SharedPreferences.Editor editor = getPreferences(context).edit();
+        putOrRemove(editor, mLocationSetting + KEY_ETAG, mETag);
+        putOrRemove(editor, mLocationSetting + KEY_LAST_MODIFIED, mLastModified);
+        putOrRemove(editor, mLocationSetting + KEY_BODY_HASH, mBodyHash);
+        editor.commit();
+    }
+
+    private static void putOrRemove(SharedPreferences.Editor editor, String key, String value) {
+        if (null == value) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, value);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.JsonReader;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Turns the OpenWeatherMap 3-hourly forecast response into hourly rows ready for the provider,
+ * pulling tokens straight off the network stream like {@link ForecastJsonParser#parse(InputStream,
+ * int)}.  There's no DOM fallback: devices without {@link JsonReader} don't fetch the hourly
+ * forecast.
+ * <p/>
+ * Entries without a time, temperature or weather code are skipped rather than failing the
+ * whole response.
+ */
+public class HourlyForecastParser {
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000L;
+
+    // Each 3-hour step is an element of "list", timed in seconds since the epoch
+    static final String OWM_TIME = "dt";
+    // Temperature and humidity are children of the "main" object
+    static final String OWM_MAIN = "main";
+    static final String OWM_TEMPERATURE = "temp";
+
+    /**
+     * @param in the raw response body, which is not closed by this method
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static ForecastJsonParser.Forecast parse(InputStream in)
+            throws IOException, JSONException {
+        ForecastJsonParser.Forecast forecast = new ForecastJsonParser.Forecast();
+        Time scratchTime = new Time();
+        boolean hasCity = false;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (ForecastJsonParser.OWM_MESSAGE_CODE.equals(name)) {
+                    forecast.messageCode = Integer.parseInt(reader.nextString());
+                } else if (ForecastJsonParser.OWM_CITY.equals(name)) {
+                    ForecastJsonParser.readCity(reader, forecast);
+                    hasCity = true;
+                } else if (ForecastJsonParser.OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        ContentValues hourlyValues = readStep(reader, scratchTime);
+                        if (null != hourlyValues) {
+                            forecast.rows.add(hourlyValues);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        }
+
+        if (forecast.messageCode == HttpURLConnection.HTTP_OK && !hasCity) {
+            throw new JSONException("No value for " + ForecastJsonParser.OWM_CITY);
+        }
+        return forecast;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static ContentValues readStep(JsonReader reader, Time scratchTime)
+            throws IOException {
+        long time = -1;
+        double temperature = Double.NaN;
+        int humidity = 0;
+        int weatherId = -1;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                time = reader.nextLong() * 1000;
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        temperature = reader.nextDouble();
+                    } else if (ForecastJsonParser.OWM_HUMIDITY.equals(mainName)) {
+                        humidity = (int) Math.round(reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (ForecastJsonParser.OWM_WEATHER.equals(name)) {
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (ForecastJsonParser.OWM_WEATHER_ID.equals(reader.nextName())) {
+                            weatherId = (int) reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (time < 0 || Double.isNaN(temperature) || weatherId < 0) {
+            return null;
+        }
+        long date = WeatherContract.normalizeDate(time, scratchTime);
+        ContentValues hourlyValues = new ContentValues();
+        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_DATE, date);
+        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_HOUR,
+                (int) ((time - date) / HOUR_IN_MILLIS));
+        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_TEMP,
+                (int) Math.round(temperature * 10));
+        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, humidity);
+        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, weatherId);
+        return hourlyValues;
+    }
+}
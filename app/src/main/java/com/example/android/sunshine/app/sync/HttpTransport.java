@@ -0,0 +1,139 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * {@link ForecastTransport} on top of {@link HttpURLConnection}.
+ * <p/>
+ * We ask for gzip ourselves rather than leaving it to HttpURLConnection: when it negotiates
+ * compression on its own it also decodes it on its own, and then there's no way to see how many
+ * bytes actually crossed the network.  Decoding is done as the body is read, never up front.
+ * <p/>
+ * Connections are never disconnected here.  Closing a fully read response hands the socket back
+ * to HttpURLConnection's keep-alive pool, so the next request to the same host skips the TCP
+ * (and DNS) setup.
+ */
+public class HttpTransport implements ForecastTransport {
+    private static final String LOG_TAG = HttpTransport.class.getSimpleName();
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    public HttpTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    public HttpTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public Response get(String url, Map<String, String> headers) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(mConnectTimeoutMillis);
+        connection.setReadTimeout(mReadTimeoutMillis);
+        connection.setRequestMethod("GET");
+        connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        try {
+            connection.connect();
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+        return new HttpResponse(connection);
+    }
+
+    private static class HttpResponse implements Response {
+        private final HttpURLConnection mConnection;
+        private CountingInputStream mWireStream;
+        private CountingInputStream mDecodedStream;
+
+        HttpResponse(HttpURLConnection connection) {
+            mConnection = connection;
+        }
+
+        @Override
+        public int getCode() throws IOException {
+            return mConnection.getResponseCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (null == mDecodedStream) {
+                InputStream raw = mConnection.getInputStream();
+                if (null == raw) {
+                    raw = new ByteArrayInputStream(new byte[0]);
+                }
+                mWireStream = new CountingInputStream(raw);
+
+                InputStream decoded;
+                String encoding = mConnection.getContentEncoding();
+                if ("gzip".equalsIgnoreCase(encoding)) {
+                    decoded = new GZIPInputStream(mWireStream);
+                } else if ("deflate".equalsIgnoreCase(encoding)) {
+                    decoded = new InflaterInputStream(mWireStream);
+                } else {
+                    decoded = mWireStream;
+                }
+                mDecodedStream = new CountingInputStream(decoded);
+            }
+            return mDecodedStream;
+        }
+
+        @Override
+        public long getWireBytes() {
+            return null == mWireStream ? 0 : mWireStream.getCount();
+        }
+
+        @Override
+        public long getDecodedBytes() {
+            return null == mDecodedStream ? 0 : mDecodedStream.getCount();
+        }
+
+        @Override
+        public void close() {
+            try {
+                // The connection only goes back to the pool once its body has been read to the
+                // end.  Whatever's left is normally a few bytes of trailing whitespace.
+                if (mConnection.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST) {
+                    InputStream in = getBody();
+                    byte[] scratch = new byte[256];
+                    while (in.read(scratch) != -1) {
+                        // draining
+                    }
+                    in.close();
+                } else {
+                    InputStream error = mConnection.getErrorStream();
+                    if (null != error) {
+                        error.close();
+                    }
+                }
+            } catch (IOException e) {
+                // This connection can't be reused; make sure it doesn't linger
+                Log.d(LOG_TAG, "Discarding connection", e);
+                mConnection.disconnect();
+            }
+        }
+    }
+}
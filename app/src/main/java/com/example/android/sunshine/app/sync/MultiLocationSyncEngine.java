@@ -0,0 +1,555 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.RemoteException;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Refreshes the forecast for several locations at once.  Each location is fetched, parsed and
+ * stored on a small worker pool, with a cap on how many requests are in flight to any one host,
+ * and everything it writes goes to the provider as one batch, in a single transaction.
+ * <p/>
+ * Every location gets its own status, kept in a preferences file keyed by location setting.
+ * Broadcasting the results (widgets, Muzei, notifications) is left to the caller, so it happens
+ * once per sync rather than once per location.
+ */
+public class MultiLocationSyncEngine {
+    private static final String LOG_TAG = MultiLocationSyncEngine.class.getSimpleName();
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    public static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+
+    public static final String HOURLY_FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast?";
+    // Five days of 3-hour steps
+    static final int HOURLY_STEPS = 40;
+
+    public static final int DEFAULT_WORKERS = 4;
+    // HttpURLConnection keeps up to 5 idle connections per host, so stay under that
+    public static final int DEFAULT_REQUESTS_PER_HOST = 4;
+
+    private static final String STATUS_PREFS_NAME = "location_status";
+
+    /**
+     * One location to refresh.  Locations with a latitude and longitude are asked for by
+     * coordinates; the rest by their location setting.
+     */
+    public static class SyncLocation {
+        public final String locationSetting;
+        public final String latitude;
+        public final String longitude;
+
+        public SyncLocation(String locationSetting) {
+            this(locationSetting, null, null);
+        }
+
+        public SyncLocation(String locationSetting, String latitude, String longitude) {
+            this.locationSetting = locationSetting;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+
+    /**
+     * How the sync of one location went.
+     */
+    public static class Result {
+        public final String locationSetting;
+        @SunshineSyncAdapter.LocationStatus
+        public int status = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        // true if a new forecast was written, even if no row in it differed from the old one
+        public boolean stored;
+        // weather rows inserted, updated or purged
+        public int changedRows;
+        // hourly rows written or purged, if the hourly forecast was fetched for this location
+        public int hourlyRows;
+
+        Result(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+    }
+
+    private final Context mContext;
+    private final ForecastTransport mTransport;
+    private final String mBaseUrl;
+    private final int mWorkers;
+    private final int mRequestsPerHost;
+    private final HashMap<String, Semaphore> mHostPermits = new HashMap<String, Semaphore>();
+    private int mJulianStartDay;
+    private String mHourlyBaseUrl;
+    private String mHourlyLocationSetting;
+
+    public MultiLocationSyncEngine(Context context, ForecastTransport transport) {
+        this(context, transport, FORECAST_BASE_URL, DEFAULT_WORKERS, DEFAULT_REQUESTS_PER_HOST);
+    }
+
+    public MultiLocationSyncEngine(Context context, ForecastTransport transport, String baseUrl,
+                                   int workers, int requestsPerHost) {
+        mContext = context;
+        mTransport = transport;
+        mBaseUrl = baseUrl;
+        mWorkers = workers;
+        mRequestsPerHost = requestsPerHost;
+    }
+
+    /**
+     * Also fetches the 3-hourly forecast for one location, from {@code baseUrl}, in parallel with
+     * the daily forecasts.  Only the location on screen is worth the extra request.  Off by
+     * default, and always off before Honeycomb, which can't stream-parse it.
+     *
+     * @param baseUrl         {@link #HOURLY_FORECAST_BASE_URL}, or null to turn it off.
+     * @param locationSetting which of the synced locations to fetch it for.
+     */
+    public void setHourlyForecast(String baseUrl, String locationSetting) {
+        mHourlyBaseUrl = baseUrl;
+        mHourlyLocationSetting = locationSetting;
+    }
+
+    /**
+     * Syncs every location and waits for them all to finish.  If the calling thread is
+     * interrupted (the sync was cancelled), the outstanding locations are abandoned and come back
+     * with an unknown status, and keep the status they had stored before.
+     *
+     * @return one result per location, in the order given.
+     */
+    public List<Result> syncAll(List<SyncLocation> locations) {
+        // Every location's forecast starts on the same day, however long the sync takes
+        mJulianStartDay = SunshineSyncAdapter.getJulianStartDay();
+
+        int hourlyIndex = -1;
+        if (null != mHourlyBaseUrl && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            for (int i = 0; i < locations.size() && hourlyIndex < 0; i++) {
+                if (locations.get(i).locationSetting.equals(mHourlyLocationSetting)) {
+                    hourlyIndex = i;
+                }
+            }
+        }
+
+        List<Result> results = new ArrayList<Result>(locations.size());
+        if (locations.size() == 1 && hourlyIndex < 0) {
+            // Not worth a thread
+            results.add(syncLocation(locations.get(0)));
+            return results;
+        }
+
+        int tasks = locations.size() + (hourlyIndex < 0 ? 0 : 1);
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(mWorkers, tasks)));
+        List<Future<Result>> futures = new ArrayList<Future<Result>>(locations.size());
+        Future<Integer> hourlyFuture = null;
+        try {
+            if (hourlyIndex >= 0) {
+                // First in the queue, so it runs alongside the daily fetches rather than after
+                final SyncLocation location = locations.get(hourlyIndex);
+                hourlyFuture = executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return syncHourly(location);
+                    }
+                });
+            }
+            for (final SyncLocation location : locations) {
+                futures.add(executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        return syncLocation(location);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                Result result;
+                try {
+                    result = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error syncing " + locations.get(i).locationSetting, e);
+                    result = new Result(locations.get(i).locationSetting);
+                }
+                results.add(result);
+            }
+            if (null != hourlyFuture) {
+                try {
+                    results.get(hourlyIndex).hourlyRows = hourlyFuture.get();
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error syncing the hourly forecast", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            for (int i = results.size(); i < locations.size(); i++) {
+                results.add(new Result(locations.get(i).locationSetting));
+            }
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    private Semaphore getHostPermits(String host) {
+        synchronized (mHostPermits) {
+            Semaphore permits = mHostPermits.get(host);
+            if (null == permits) {
+                permits = new Semaphore(mRequestsPerHost);
+                mHostPermits.put(host, permits);
+            }
+            return permits;
+        }
+    }
+
+    Uri buildForecastUri(SyncLocation location) {
+        return buildForecastUri(mBaseUrl, location, 14);
+    }
+
+    private static Uri buildForecastUri(String baseUrl, SyncLocation location, int count) {
+        final String QUERY_PARAM = "q";
+        final String LAT_PARAM = "lat";
+        final String LON_PARAM = "lon";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        String format = "json";
+        String units = "metric";
+
+        Uri.Builder uriBuilder = Uri.parse(baseUrl).buildUpon();
+
+        // The weather service may not understand an address from the Place Picker, so use
+        // coordinates whenever we have them
+        if (null != location.latitude && null != location.longitude) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, location.latitude)
+                    .appendQueryParameter(LON_PARAM, location.longitude);
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, location.locationSetting);
+        }
+
+        return uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(count))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    /**
+     * Fetches, parses and stores one location.  Runs on a worker thread.
+     */
+    Result syncLocation(SyncLocation location) {
+        Result result = new Result(location.locationSetting);
+        String locationSetting = location.locationSetting;
+
+        // Only ask the server to skip the body if we still have something to show for it.
+        // If the forecast was wiped locally the validators are stale.
+        ForecastValidators validators = ForecastValidators.load(mContext, locationSetting);
+        boolean conditional = hasWeatherForToday(locationSetting);
+        Map<String, String> headers = new HashMap<String, String>();
+        if (conditional) {
+            validators.applyTo(headers);
+        }
+
+        Uri builtUri = buildForecastUri(location);
+        Semaphore hostPermits = getHostPermits(builtUri.getHost());
+        ForecastTransport.Response response = null;
+        try {
+            ForecastJsonParser.Forecast forecast;
+            String bodyHash;
+
+            // Only the network part counts against the host's limit; the database write below
+            // happens after the permit is given back
+            hostPermits.acquire();
+            try {
+                response = mTransport.get(builtUri.toString(), headers);
+                SyncStats.increment(mContext, SyncStats.SYNCS);
+
+                if (conditional &&
+                        response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    // Nothing has changed since the last sync, so there's nothing to parse,
+                    // store or tell anyone about.
+                    Log.d(LOG_TAG, locationSetting + ": forecast not modified");
+                    SyncStats.increment(mContext, SyncStats.SYNCS_NOT_MODIFIED);
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                    return result;
+                }
+
+                // The transport has already undone any compression
+                InputStream inputStream = validators.digest(response.getBody());
+
+                // Where we can, pull the forecast straight off the stream rather than holding
+                // the whole body (and then a DOM of it) in memory.
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                    forecast = ForecastJsonParser.parse(inputStream, mJulianStartDay);
+                } else {
+                    forecast = ForecastJsonParser.parseBuffered(inputStream, mJulianStartDay);
+                }
+                bodyHash = validators.finishDigest(inputStream);
+            } finally {
+                if (response != null) {
+                    // Closing the response (rather than disconnecting) lets the connection be
+                    // reused
+                    response.close();
+                    recordTransfer(response);
+                }
+                hostPermits.release();
+            }
+
+            if (conditional && forecast.messageCode == HttpURLConnection.HTTP_OK &&
+                    validators.isUnchanged(bodyHash)) {
+                // The server sent the whole thing again, but it's byte for byte what we have.
+                Log.d(LOG_TAG, locationSetting + ": forecast unchanged");
+                SyncStats.increment(mContext, SyncStats.SYNCS_UNCHANGED_BODY);
+                validators.save(mContext, response, bodyHash);
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                return result;
+            }
+
+            storeForecast(forecast, locationSetting, result);
+            if (result.stored) {
+                validators.save(mContext, response, bodyHash);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } catch (InterruptedException e) {
+            // Cancelled while waiting for the host; the result's status stays unknown
+            Thread.currentThread().interrupt();
+        } finally {
+            // An unknown status says nothing about the location, so it mustn't replace what the
+            // last sync that got anywhere found out
+            if (result.status != SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN) {
+                setLocationStatus(mContext, locationSetting, result.status);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fetches and stores the hourly forecast for one location.  Runs on a worker thread.  It's
+     * always fetched in full; it changes every three hours, so there'd be little to gain from
+     * conditional requests.
+     *
+     * @return the number of hourly rows written or purged.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    int syncHourly(SyncLocation location) {
+        Uri builtUri = buildForecastUri(mHourlyBaseUrl, location, HOURLY_STEPS);
+        Semaphore hostPermits = getHostPermits(builtUri.getHost());
+        ForecastTransport.Response response = null;
+        try {
+            ForecastJsonParser.Forecast forecast;
+            hostPermits.acquire();
+            try {
+                response = mTransport.get(builtUri.toString(), new HashMap<String, String>());
+                forecast = HourlyForecastParser.parse(response.getBody());
+            } finally {
+                if (response != null) {
+                    response.close();
+                    recordTransfer(response);
+                }
+                hostPermits.release();
+            }
+            if (forecast.messageCode != HttpURLConnection.HTTP_OK || forecast.rows.isEmpty()) {
+                return 0;
+            }
+
+            // The daily forecast may not have stored the location yet, so this can't wait for it
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, forecast.cityName);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                    location.locationSetting);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, forecast.cityLatitude);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, forecast.cityLongitude);
+            long locationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                    WeatherContract.LocationEntry.buildLocationIfAbsentUri(), locationValues));
+
+            Time dayTime = new Time();
+            int hourlyRows = mContext.getContentResolver().bulkInsert(
+                    WeatherContract.HourlyEntry.buildHourlyIngestUri(
+                            dayTime.setJulianDay(mJulianStartDay - 1)),
+                    forecast.toArray(locationId));
+            Log.d(LOG_TAG, location.locationSetting + ": " + hourlyRows + " hourly rows changed");
+            return hourlyRows;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
+    /**
+     * Logs and accumulates what this sync cost on the wire against what it decoded to, so the
+     * savings from compression can be measured on metered links.
+     */
+    private void recordTransfer(ForecastTransport.Response response) {
+        long wireBytes = response.getWireBytes();
+        long decodedBytes = response.getDecodedBytes();
+        Log.d(LOG_TAG, "Sync transferred " + wireBytes + " bytes on the wire, "
+                + decodedBytes + " bytes decoded");
+        SyncStats.add(mContext, SyncStats.WIRE_BYTES, wireBytes);
+        SyncStats.add(mContext, SyncStats.DECODED_BYTES, decodedBytes);
+    }
+
+    /**
+     * Returns true if the database holds today's forecast for the given location.
+     */
+    private boolean hasWeatherForToday(String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = mContext.getContentResolver().query(weatherUri,
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null, null, null);
+        if (null == cursor) {
+            return false;
+        }
+        boolean hasWeather = cursor.moveToFirst();
+        cursor.close();
+        return hasWeather;
+    }
+
+    /**
+     * Take a parsed forecast and write it out: the location, then the weather rows, then
+     * clean out the old days, all as one batch in one transaction.  Fills in the result's
+     * status, stored flag and changed row count.  A batch that fails to apply has stored none
+     * of it, and counts as a forecast the server shouldn't have sent.
+     */
+    private void storeForecast(ForecastJsonParser.Forecast forecast, String locationSetting,
+                               Result result) {
+        switch (forecast.messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                return;
+            default:
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                return;
+        }
+
+        Time dayTime = new Time();
+        ArrayList<ContentProviderOperation> operations = buildStoreOperations(locationSetting,
+                forecast, dayTime.setJulianDay(mJulianStartDay - 1));
+        ContentProviderResult[] results;
+        try {
+            results = mContext.getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException e) {
+            Log.e(LOG_TAG, "Error storing " + locationSetting, e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+            return;
+        } catch (OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error storing " + locationSetting, e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+            return;
+        } catch (android.database.SQLException e) {
+            // A row the database wouldn't take
+            Log.e(LOG_TAG, "Error storing " + locationSetting, e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+            return;
+        }
+
+        // The first result is the location; the rest count the weather rows written or purged
+        for (int i = 1; i < results.length; i++) {
+            result.changedRows += results[i].count;
+        }
+        Log.d(LOG_TAG, locationSetting + ": " + result.changedRows + " of "
+                + forecast.rows.size() + " rows changed");
+        result.stored = true;
+        result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+    }
+
+    /**
+     * Everything storing one forecast writes: the location if it's new, each day's weather keyed
+     * to that location by back-reference, and the purge of every day on or before
+     * {@code purgeBefore}.  Only the days that changed get written, and the purge hands the old
+     * days to the archive rather than letting the weather table grow without end.
+     */
+    static ArrayList<ContentProviderOperation> buildStoreOperations(String locationSetting,
+            ForecastJsonParser.Forecast forecast, long purgeBefore) {
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(forecast.rows.size() + 2);
+        operations.add(ContentProviderOperation.newInsert(
+                WeatherContract.LocationEntry.buildLocationIfAbsentUri())
+                .withValue(WeatherContract.LocationEntry.COLUMN_CITY_NAME, forecast.cityName)
+                .withValue(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting)
+                .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LAT, forecast.cityLatitude)
+                .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LONG, forecast.cityLongitude)
+                .build());
+        if (forecast.rows.isEmpty()) {
+            return operations;
+        }
+
+        // An update on the incremental URI is an upsert; the purge is its own operation below
+        Uri upsertUri = WeatherContract.WeatherEntry.buildWeatherIncrementalUri(0);
+        for (ContentValues row : forecast.rows) {
+            operations.add(ContentProviderOperation.newUpdate(upsertUri)
+                    .withValues(row)
+                    .withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        // A delete on the incremental URI moves the old days into the archive
+        operations.add(ContentProviderOperation.newDelete(
+                WeatherContract.WeatherEntry.buildWeatherIncrementalUri(purgeBefore))
+                .build());
+        return operations;
+    }
+
+    private static SharedPreferences getStatusPreferences(Context context) {
+        return context.getSharedPreferences(STATUS_PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return how the last sync of this location went, or
+     * {@link SunshineSyncAdapter#LOCATION_STATUS_UNKNOWN} if it hasn't been synced.
+     */
+    @SuppressWarnings("ResourceType")
+    public static @SunshineSyncAdapter.LocationStatus
+    int getLocationStatus(Context context, String locationSetting) {
+        return getStatusPreferences(context).getInt(locationSetting,
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
+    /**
+     * Stores the status of one location.  Uses commit, so keep it off the UI thread.
+     */
+    static void setLocationStatus(Context context, String locationSetting,
+                                  @SunshineSyncAdapter.LocationStatus int locationStatus) {
+        getStatusPreferences(context).edit().putInt(locationSetting, locationStatus).commit();
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Random;
+
+/**
+ * Decides when the forecast is worth fetching.  Three rules sit on top of the sync framework's
+ * own scheduling:
+ * <ul>
+ * <li>After a failed sync, further syncs are held off with exponential backoff.  Each delay is
+ * jittered so that devices which failed together don't all come back together.</li>
+ * <li>A request for an immediate sync is dropped if one is already pending, since the pending
+ * sync will read the latest settings when it runs anyway.</li>
+ * <li>While syncs keep finding nothing new, the periodic interval is stretched, up to
+ * {@link #MAX_INTERVAL_MILLIS}.  It snaps back as soon as the forecast changes.</li>
+ * </ul>
+ * User-initiated syncs skip the backoff; they're rare once coalesced, and someone is waiting.
+ * <p/>
+ * Time and randomness come from the constructor so the policy can be replayed in a test.
+ */
+public class SyncScheduler {
+    private static final String PREFS_NAME = "sync_scheduler";
+
+    public static final int OUTCOME_CHANGED = 0;
+    public static final int OUTCOME_UNCHANGED = 1;
+    public static final int OUTCOME_FAILED = 2;
+
+    public static final long BASE_INTERVAL_MILLIS = SunshineSyncAdapter.SYNC_INTERVAL * 1000L;
+    public static final long MAX_INTERVAL_MILLIS = 4 * BASE_INTERVAL_MILLIS;
+    // How many syncs in a row must find nothing new before the interval doubles
+    public static final int UNCHANGED_SYNCS_PER_STRETCH = 2;
+
+    public static final long INITIAL_BACKOFF_MILLIS = 5 * 60 * 1000L;
+    public static final long MAX_BACKOFF_MILLIS = BASE_INTERVAL_MILLIS;
+
+    // A pending immediate sync that hasn't started after this long is assumed dropped
+    public static final long PENDING_IMMEDIATE_TIMEOUT_MILLIS = 60 * 1000L;
+
+    private static final String KEY_CONSECUTIVE_FAILURES = "consecutive_failures";
+    private static final String KEY_CONSECUTIVE_UNCHANGED = "consecutive_unchanged";
+    private static final String KEY_LAST_SYNC = "last_sync";
+    private static final String KEY_BACKOFF_UNTIL = "backoff_until";
+    private static final String KEY_IMMEDIATE_REQUESTED = "immediate_requested";
+
+    public interface Clock {
+        long currentTimeMillis();
+    }
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private static SyncScheduler sInstance;
+
+    private final Clock mClock;
+    private final Random mRandom;
+    private final SharedPreferences mPrefs;
+
+    private int mConsecutiveFailures;
+    private int mConsecutiveUnchanged;
+    private long mLastSync;
+    private long mBackoffUntil;
+    private long mImmediateRequested;
+
+    /**
+     * A scheduler that keeps its state in memory only.
+     */
+    public SyncScheduler(Clock clock, Random random) {
+        this(clock, random, null);
+    }
+
+    private SyncScheduler(Clock clock, Random random, SharedPreferences prefs) {
+        mClock = clock;
+        mRandom = random;
+        mPrefs = prefs;
+        if (null != prefs) {
+            mConsecutiveFailures = prefs.getInt(KEY_CONSECUTIVE_FAILURES, 0);
+            mConsecutiveUnchanged = prefs.getInt(KEY_CONSECUTIVE_UNCHANGED, 0);
+            mLastSync = prefs.getLong(KEY_LAST_SYNC, 0);
+            mBackoffUntil = prefs.getLong(KEY_BACKOFF_UNTIL, 0);
+            mImmediateRequested = prefs.getLong(KEY_IMMEDIATE_REQUESTED, 0);
+        }
+    }
+
+    /**
+     * The app's scheduler, backed by its own preferences file so backoff survives the process.
+     */
+    public static synchronized SyncScheduler getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new SyncScheduler(SYSTEM_CLOCK, new Random(),
+                    context.getApplicationContext().getSharedPreferences(PREFS_NAME,
+                            Context.MODE_PRIVATE));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Called when something wants a sync right now.
+     *
+     * @return true if the request should go to the sync framework, false if it is covered by
+     * one that is already pending.
+     */
+    public synchronized boolean requestImmediateSync() {
+        long now = mClock.currentTimeMillis();
+        if (0 != mImmediateRequested &&
+                now - mImmediateRequested < PENDING_IMMEDIATE_TIMEOUT_MILLIS) {
+            return false;
+        }
+        mImmediateRequested = now;
+        save();
+        return true;
+    }
+
+    /**
+     * Called at the start of every sync.
+     *
+     * @param userInitiated true for a manual sync, which is not held back by backoff.
+     * @return true if the sync should go ahead and hit the network.
+     */
+    public synchronized boolean onSyncStarted(boolean userInitiated) {
+        if (userInitiated) {
+            // Whatever was pending is now running, so the next request needs a sync of its own
+            mImmediateRequested = 0;
+            save();
+            return true;
+        }
+        return mClock.currentTimeMillis() >= mBackoffUntil;
+    }
+
+    /**
+     * Records how a sync that went ahead turned out.
+     *
+     * @param outcome one of {@link #OUTCOME_CHANGED}, {@link #OUTCOME_UNCHANGED} or
+     *                {@link #OUTCOME_FAILED}.
+     */
+    public synchronized void onSyncFinished(int outcome) {
+        long now = mClock.currentTimeMillis();
+        switch (outcome) {
+            case OUTCOME_FAILED:
+                mConsecutiveFailures++;
+                mBackoffUntil = now + getBackoffMillis(mConsecutiveFailures);
+                break;
+            case OUTCOME_UNCHANGED:
+                mConsecutiveFailures = 0;
+                mBackoffUntil = 0;
+                mConsecutiveUnchanged++;
+                mLastSync = now;
+                break;
+            default:
+                mConsecutiveFailures = 0;
+                mBackoffUntil = 0;
+                mConsecutiveUnchanged = 0;
+                mLastSync = now;
+                break;
+        }
+        save();
+    }
+
+    /**
+     * The delay after the given number of consecutive failures: doubling from
+     * {@link #INITIAL_BACKOFF_MILLIS} up to {@link #MAX_BACKOFF_MILLIS}, then jittered down to
+     * somewhere between half and all of that.
+     */
+    long getBackoffMillis(int failures) {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        for (int i = 1; i < failures && backoff < MAX_BACKOFF_MILLIS; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, MAX_BACKOFF_MILLIS);
+        long half = backoff / 2;
+        return half + (long) (mRandom.nextDouble() * (backoff - half));
+    }
+
+    /**
+     * @return the periodic sync interval the forecast's recent stability calls for.
+     */
+    public synchronized long getSyncIntervalMillis() {
+        long interval = BASE_INTERVAL_MILLIS;
+        for (int i = UNCHANGED_SYNCS_PER_STRETCH; i <= mConsecutiveUnchanged &&
+                interval < MAX_INTERVAL_MILLIS; i += UNCHANGED_SYNCS_PER_STRETCH) {
+            interval *= 2;
+        }
+        return Math.min(interval, MAX_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @return the earliest time, in milliseconds since the epoch, a periodic sync should run.
+     */
+    public synchronized long getNextSyncTime() {
+        if (mConsecutiveFailures > 0) {
+            return mBackoffUntil;
+        }
+        return mLastSync + getSyncIntervalMillis();
+    }
+
+    /**
+     * @return the time, in milliseconds since the epoch, until which periodic syncs are held
+     * off, or 0 if they aren't.
+     */
+    public synchronized long getBackoffUntil() {
+        return mBackoffUntil;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return mConsecutiveFailures;
+    }
+
+    /**
+     * Forgets all failures, stability and pending requests.
+     */
+    public synchronized void reset() {
+        mConsecutiveFailures = 0;
+        mConsecutiveUnchanged = 0;
+        mLastSync = 0;
+        mBackoffUntil = 0;
+        mImmediateRequested = 0;
+        save();
+    }
+
+    private void save() {
+        if (null == mPrefs) {
+            return;
+        }
+        // apply, not commit: requestImmediateSync is called from the UI thread
+        mPrefs.edit()
+                .putInt(KEY_CONSECUTIVE_FAILURES, mConsecutiveFailures)
+                .putInt(KEY_CONSECUTIVE_UNCHANGED, mConsecutiveUnchanged)
+                .putLong(KEY_LAST_SYNC, mLastSync)
+                .putLong(KEY_BACKOFF_UNTIL, mBackoffUntil)
+                .putLong(KEY_IMMEDIATE_REQUESTED, mImmediateRequested)
+                .apply();
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Running counters describing what the sync adapter has been doing, kept in their own
+ * preferences file so they survive process death and don't clutter the settings.
+ * <p/>
+ * This is bookkeeping only: nothing in the app changes behavior based on these numbers.
+ */
+public class SyncStats {
+    private static final String PREFS_NAME = "sync_stats";
+
+    // The sync counters count forecast requests, one per location per sync, not calls to
+    // onPerformSync: a sync of three saved locations adds three.  Their ratios are per request.
+
+    // Every location request that reached the network
+    public static final String SYNCS = "syncs";
+    // Location requests the server answered with 304 Not Modified
+    public static final String SYNCS_NOT_MODIFIED = "syncs_not_modified";
+    // Location requests that downloaded a body identical to the one we already had
+    public static final String SYNCS_UNCHANGED_BODY = "syncs_unchanged_body";
+    // Response body bytes as they came off the network, possibly compressed
+    public static final String WIRE_BYTES = "wire_bytes";
+    // The same bodies after decompression
+    public static final String DECODED_BYTES = "decoded_bytes";
+    // Provider change notifications dropped because the same URI was already pending
+    public static final String NOTIFICATIONS_SUPPRESSED = "notifications_suppressed";
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static long get(Context context, String counter) {
+        return getPreferences(context).getLong(counter, 0);
+    }
+
+    // Locations sync in parallel, so the read-modify-write below must not interleave
+    public static synchronized void add(Context context, String counter, long delta) {
+        SharedPreferences prefs = getPreferences(context);
+        prefs.edit().putLong(counter, prefs.getLong(counter, 0) + delta).commit();
+    }
+
+    public static void increment(Context context, String counter) {
+        add(context, counter, 1);
+    }
+
+    /**
+     * @return how many location requests finished without writing to the database or notifying
+     * anyone.  Compare with {@link #SYNCS}, which counts the same way.
+     */
+    public static long getShortCircuitedSyncs(Context context) {
+        return get(context, SYNCS_NOT_MODIFIED) + get(context, SYNCS_UNCHANGED_BODY);
+    }
+
+    public static synchronized void reset(Context context) {
+        getPreferences(context).edit().clear().commit();
+    }
+}
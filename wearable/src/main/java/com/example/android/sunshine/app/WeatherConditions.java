@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.util.Arrays;
+
+/**
+ * The watch face's half of the phone's condition table: the same code ranges, mapped once to
+ * the wearable's own icons.  Keep the ranges in step with the app module's WeatherConditions.
+ * <p/>
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public class WeatherConditions {
+    static final int MAX_CODE = 999;
+
+    // Inclusive code ranges and their icon.  Where ranges overlap the first one wins.
+    private static final int[][] ICON_RANGES = {
+            {200, 232, R.drawable.ic_storm},
+            {300, 321, R.drawable.ic_light_rain},
+            {500, 504, R.drawable.ic_rain},
+            {511, 511, R.drawable.ic_snow},
+            {520, 531, R.drawable.ic_rain},
+            {600, 622, R.drawable.ic_snow},
+            {701, 761, R.drawable.ic_fog},
+            {781, 781, R.drawable.ic_storm},
+            {800, 800, R.drawable.ic_clear},
+            {801, 801, R.drawable.ic_light_clouds},
+            {802, 804, R.drawable.ic_cloudy}
+    };
+
+    private static final int[] sIcons = new int[MAX_CODE + 1];
+
+    static {
+        Arrays.fill(sIcons, -1);
+        for (int i = ICON_RANGES.length - 1; i >= 0; i--) {
+            int[] range = ICON_RANGES[i];
+            for (int code = range[0]; code <= range[1]; code++) {
+                sIcons[code] = range[2];
+            }
+        }
+    }
+
+    private WeatherConditions() {
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return resource id for the corresponding icon. -1 if no relation is found.
+     */
+    public static int getIconResource(int weatherId) {
+        if (weatherId < 0 || weatherId > MAX_CODE) {
+            return -1;
+        }
+        return sIcons[weatherId];
+    }
+}
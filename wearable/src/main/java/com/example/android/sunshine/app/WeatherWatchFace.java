@@ -86,7 +86,7 @@ public class WeatherWatchFace extends CanvasWatchFaceService {
                 mHigh = bundle.getString(WeatherDataService.TEMP_HIGH, "");
 
                 int weatherId = bundle.getInt(WeatherDataService.WEATHER_ID, -1);
-                int iconId = getIconResourceForWeatherCondition(weatherId);
+                int iconId = WeatherConditions.getIconResource(weatherId);
                 mIcon = BitmapFactory.decodeResource(getResources(), iconId);
 
                 invalidate();
@@ -334,42 +334,5 @@ public class WeatherWatchFace extends CanvasWatchFaceService {
             }
             return String.valueOf(hour);
         }
-
-
-        /**
-         * Helper method to provide the icon resource id according to the weather condition id returned
-         * by the OpenWeatherMap call.
-         *
-         * @param weatherId from OpenWeatherMap API response
-         * @return resource id for the corresponding icon. -1 if no relation is found.
-         */
-        public int getIconResourceForWeatherCondition(int weatherId) {
-            // Based on weather code data found at:
-            // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-            if (weatherId >= 200 && weatherId <= 232) {
-                return R.drawable.ic_storm;
-            } else if (weatherId >= 300 && weatherId <= 321) {
-                return R.drawable.ic_light_rain;
-            } else if (weatherId >= 500 && weatherId <= 504) {
-                return R.drawable.ic_rain;
-            } else if (weatherId == 511) {
-                return R.drawable.ic_snow;
-            } else if (weatherId >= 520 && weatherId <= 531) {
-                return R.drawable.ic_rain;
-            } else if (weatherId >= 600 && weatherId <= 622) {
-                return R.drawable.ic_snow;
-            } else if (weatherId >= 701 && weatherId <= 761) {
-                return R.drawable.ic_fog;
-            } else if (weatherId == 761 || weatherId == 781) {
-                return R.drawable.ic_storm;
-            } else if (weatherId == 800) {
-                return R.drawable.ic_clear;
-            } else if (weatherId == 801) {
-                return R.drawable.ic_light_clouds;
-            } else if (weatherId >= 802 && weatherId <= 804) {
-                return R.drawable.ic_cloudy;
-            }
-            return -1;
-        }
     }
 }